@@ -0,0 +1,48 @@
+package hipstershop;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.ratelimit.KeyResolver;
+import org.springframework.cloud.gateway.support.ipresolver.XForwardedRemoteAddressResolver;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Rate limit for POST /api/guest, which hands out tokens without
+ * credentials. Without it anyone could mint guest tokens as fast as they
+ * like and send cart and checkout load that passes the token check.
+ *
+ * Requests are keyed by client address. The frontend asks for guest tokens
+ * on its visitors' behalf and forwards their address in X-Forwarded-For, so
+ * with trusted-hops=1 the last X-Forwarded-For entry is the key. That is
+ * only safe while the gateway is reachable solely through the frontend, as
+ * in k8s, where it is a ClusterIP service. With trusted-hops=0 the peer
+ * address is used.
+ */
+@Configuration
+public class GuestRateLimitConfig {
+
+    @Bean
+    public InMemoryRateLimiter guestRateLimiter(
+            @Value("${gateway.guest-rate-limit.replenish-rate:1}") double replenishRate,
+            @Value("${gateway.guest-rate-limit.burst-capacity:20}") int burstCapacity,
+            @Value("${gateway.guest-rate-limit.max-clients:100000}") long maxClients) {
+        return new InMemoryRateLimiter(replenishRate, burstCapacity, maxClients);
+    }
+
+    @Bean
+    public KeyResolver clientAddressKeyResolver(@Value("${gateway.guest-rate-limit.trusted-hops:1}") int trustedHops) {
+        XForwardedRemoteAddressResolver forwarded = trustedHops > 0
+                ? XForwardedRemoteAddressResolver.maxTrustedIndex(trustedHops)
+                : null;
+        return exchange -> {
+            InetSocketAddress address = forwarded != null
+                    ? forwarded.resolve(exchange)
+                    : exchange.getRequest().getRemoteAddress();
+            // Forwarded entries come back unresolved, so use the host string as given
+            return address != null ? Mono.just(address.getHostString()) : Mono.empty();
+        };
+    }
+}
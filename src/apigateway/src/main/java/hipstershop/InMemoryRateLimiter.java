@@ -0,0 +1,75 @@
+package hipstershop;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.cloud.gateway.filter.ratelimit.AbstractRateLimiter;
+import org.springframework.cloud.gateway.support.ConfigurationService;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Token-bucket rate limiter for RequestRateLimiter that keeps its buckets
+ * in this gateway's memory, so it needs no Redis. Each key starts with
+ * burstCapacity tokens and regains replenishRate tokens per second; a
+ * request takes one. Limits apply per gateway replica.
+ */
+public class InMemoryRateLimiter extends AbstractRateLimiter<InMemoryRateLimiter.Config> {
+
+    public static final String CONFIGURATION_PROPERTY_NAME = "in-memory-rate-limiter";
+    private static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+
+    private final double replenishRate;
+    private final int burstCapacity;
+    private final Cache<String, Bucket> buckets;
+
+    public InMemoryRateLimiter(double replenishRate, int burstCapacity, long maxKeys) {
+        super(Config.class, CONFIGURATION_PROPERTY_NAME, (ConfigurationService) null);
+        if (replenishRate <= 0 || burstCapacity < 1) {
+            throw new IllegalArgumentException("replenishRate must be positive and burstCapacity at least 1");
+        }
+        this.replenishRate = replenishRate;
+        this.burstCapacity = burstCapacity;
+        // An idle bucket refills completely, so forgetting it changes nothing
+        long refillMillis = (long) Math.ceil(burstCapacity * 1000 / replenishRate);
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterAccess(Duration.ofMillis(Math.max(refillMillis, 1000)))
+                .build();
+    }
+
+    @Override
+    public Mono<Response> isAllowed(String routeId, String id) {
+        Bucket bucket = buckets.get(routeId + "|" + id, k -> new Bucket(burstCapacity, System.nanoTime()));
+        long remaining;
+        boolean allowed;
+        synchronized (bucket) {
+            long now = System.nanoTime();
+            bucket.tokens = Math.min(burstCapacity, bucket.tokens + (now - bucket.updatedAt) * replenishRate / 1e9);
+            bucket.updatedAt = now;
+            allowed = bucket.tokens >= 1;
+            if (allowed) {
+                bucket.tokens -= 1;
+            }
+            remaining = (long) bucket.tokens;
+        }
+        return Mono.just(new Response(allowed, Map.of(REMAINING_HEADER, Long.toString(remaining))));
+    }
+
+    private static final class Bucket {
+        double tokens;
+        long updatedAt;
+
+        Bucket(double tokens, long updatedAt) {
+            this.tokens = tokens;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    /**
+     * Limits are set for the whole limiter, so routes have nothing to configure.
+     */
+    public static class Config {
+    }
+}
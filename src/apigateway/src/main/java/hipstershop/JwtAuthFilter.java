@@ -0,0 +1,231 @@
+package hipstershop;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies bearer tokens at the edge with the secret authservice signs them
+ * with, so no request needs a call to authservice to be authenticated.
+ *
+ * The services key carts and orders by username, or by guest id for
+ * anonymous shoppers, so that is the id taken from a token: its username
+ * claim, else its user_id claim (guest tokens carry no username). Any
+ * client-supplied X-User-Id is dropped and replaced with this id, which
+ * downstream services can trust. Requests to protected paths without a
+ * valid token get 401. On owner paths the {userId} segment must equal the
+ * token's id, otherwise 403. Verified tokens are cached by hash until they
+ * expire.
+ */
+@Configuration
+public class JwtAuthFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwtAuthFilter.class);
+
+    static final String USER_ID_HEADER = "X-User-Id";
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    @Bean
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    public GlobalFilter jwtAuthenticationFilter(
+            @Value("${gateway.auth.jwt-secret}") String secret,
+            @Value("${gateway.auth.protected-paths:}") List<String> protectedPaths,
+            @Value("${gateway.auth.owner-paths:}") List<String> ownerPaths,
+            @Value("${gateway.auth.cache.max-size:100000}") long cacheMaxSize,
+            @Value("${gateway.auth.cache.max-ttl:24h}") Duration cacheMaxTtl,
+            MeterRegistry meterRegistry) {
+        JwtParser parser = Jwts.parser().verifyWith(signingKey(secret)).build();
+        Cache<String, VerifiedToken> verified = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfter(new UntilTokenExpiry(cacheMaxTtl.toMillis()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verified, "gateway.jwt.verified");
+        Counter rejected = Counter.builder("gateway.auth.rejected")
+                .description("Requests to protected paths rejected for a missing or invalid token")
+                .register(meterRegistry);
+        Counter forbidden = Counter.builder("gateway.auth.forbidden")
+                .description("Requests rejected because the token does not own the user id in the path")
+                .register(meterRegistry);
+        List<PathPattern> patterns = parsePatterns(protectedPaths);
+        List<PathPattern> owned = parsePatterns(ownerPaths);
+        logger.info("JWT authentication enabled, protected paths: {}, owner paths: {}", patterns, owned);
+
+        return (exchange, chain) -> {
+            ServerHttpRequest request = exchange.getRequest();
+            PathContainer path = request.getPath().pathWithinApplication();
+            String userId = userId(request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION), parser, verified);
+
+            if (userId == null && isProtected(path, patterns)) {
+                rejected.increment();
+                return reject(exchange.getResponse(), HttpStatus.UNAUTHORIZED, "missing or invalid token");
+            }
+            String owner = pathOwner(path, owned);
+            if (owner != null && !owner.equals(userId)) {
+                forbidden.increment();
+                return reject(exchange.getResponse(), HttpStatus.FORBIDDEN, "token does not belong to this user");
+            }
+
+            ServerHttpRequest forwarded = request.mutate()
+                    .headers(h -> {
+                        h.remove(USER_ID_HEADER);
+                        if (userId != null) {
+                            h.set(USER_ID_HEADER, userId);
+                        }
+                    })
+                    .build();
+            return chain.filter(exchange.mutate().request(forwarded).build());
+        };
+    }
+
+    /**
+     * Returns the id a valid bearer token acts for, or null.
+     */
+    private static String userId(String authorization, JwtParser parser, Cache<String, VerifiedToken> verified) {
+        if (authorization == null || !authorization.startsWith(BEARER_PREFIX)) {
+            return null;
+        }
+        String token = authorization.substring(BEARER_PREFIX.length());
+        String hash = sha256(token);
+        VerifiedToken cached = verified.getIfPresent(hash);
+        if (cached != null) {
+            return cached.userId();
+        }
+        try {
+            Claims claims = parser.parseSignedClaims(token).getPayload();
+            String userId = claims.get("username", String.class);
+            if (userId == null || userId.isEmpty()) {
+                userId = claims.get("user_id", String.class);
+            }
+            if (userId == null || userId.isEmpty()) {
+                return null;
+            }
+            Date exp = claims.getExpiration();
+            verified.put(hash, new VerifiedToken(userId, exp != null ? exp.getTime() : Long.MAX_VALUE));
+            return userId;
+        } catch (JwtException e) {
+            logger.debug("Rejected JWT: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static List<PathPattern> parsePatterns(List<String> paths) {
+        PathPatternParser patternParser = new PathPatternParser();
+        return paths.stream()
+                .filter(p -> !p.isBlank())
+                .map(p -> patternParser.parse(p.trim()))
+                .toList();
+    }
+
+    /**
+     * Returns the {userId} segment of the first owner pattern the path
+     * matches, or null when it matches none.
+     */
+    private static String pathOwner(PathContainer path, List<PathPattern> patterns) {
+        for (PathPattern pattern : patterns) {
+            PathPattern.PathMatchInfo match = pattern.matchAndExtract(path);
+            if (match != null) {
+                return match.getUriVariables().get("userId");
+            }
+        }
+        return null;
+    }
+
+    private static boolean isProtected(PathContainer path, List<PathPattern> patterns) {
+        for (PathPattern pattern : patterns) {
+            if (pattern.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Mono<Void> reject(ServerHttpResponse response, HttpStatus status, String error) {
+        response.setStatusCode(status);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        byte[] body = ("{\"error\":\"" + error + "\"}").getBytes(StandardCharsets.UTF_8);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+    }
+
+    /**
+     * Same derivation as authservice's JwtService: secrets shorter than 256
+     * bits are zero-padded.
+     */
+    private static SecretKey signingKey(String secret) {
+        byte[] keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length < 32) {
+            byte[] padded = new byte[32];
+            System.arraycopy(keyBytes, 0, padded, 0, keyBytes.length);
+            keyBytes = padded;
+        }
+        return Keys.hmacShaKeyFor(keyBytes);
+    }
+
+    private static String sha256(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private record VerifiedToken(String userId, long expiresAtMillis) {}
+
+    /**
+     * Expires each entry at its token's exp claim, and never later than
+     * gateway.auth.cache.max-ttl.
+     */
+    private record UntilTokenExpiry(long maxTtlMs) implements Expiry<String, VerifiedToken> {
+        @Override
+        public long expireAfterCreate(String key, VerifiedToken token, long currentTime) {
+            long remainingMs = token.expiresAtMillis() - System.currentTimeMillis();
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, Math.min(remainingMs, maxTtlMs)));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, VerifiedToken token, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+        @Override
+        public long expireAfterRead(String key, VerifiedToken token, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
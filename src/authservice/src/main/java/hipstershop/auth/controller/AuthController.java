@@ -3,7 +3,7 @@ package hipstershop.auth.controller;
 import hipstershop.auth.model.User;
 import hipstershop.auth.repository.UserRepository;
 import hipstershop.auth.service.JwtService;
-import org.mindrot.jbcrypt.BCrypt;
+import hipstershop.auth.service.PasswordHasher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -21,12 +21,15 @@ import java.util.UUID;
 public class AuthController {
 
     private static final Logger logger = LoggerFactory.getLogger(AuthController.class);
+    private static final String GUEST_ID_PREFIX = "guest-";
     private final UserRepository userRepository;
     private final JwtService jwtService;
+    private final PasswordHasher passwordHasher;
 
-    public AuthController(UserRepository userRepository, JwtService jwtService) {
+    public AuthController(UserRepository userRepository, JwtService jwtService, PasswordHasher passwordHasher) {
         this.userRepository = userRepository;
         this.jwtService = jwtService;
+        this.passwordHasher = passwordHasher;
     }
 
     @PostMapping("/register")
@@ -47,6 +50,10 @@ public class AuthController {
         if (!email.contains("@")) {
             return error(HttpStatus.BAD_REQUEST, "invalid email format");
         }
+        // Guest carts are keyed by guest id; a username must never collide with one
+        if (username.startsWith(GUEST_ID_PREFIX)) {
+            return error(HttpStatus.BAD_REQUEST, "username must not start with \"" + GUEST_ID_PREFIX + "\"");
+        }
 
         // Check duplicates
         if (userRepository.existsByEmail(email)) {
@@ -61,7 +68,12 @@ public class AuthController {
         user.setId(UUID.randomUUID().toString());
         user.setEmail(email);
         user.setUsername(username);
-        user.setPasswordHash(BCrypt.hashpw(password, BCrypt.gensalt()));
+        try {
+            user.setPasswordHash(passwordHasher.hash(password));
+        } catch (PasswordHasher.BusyException e) {
+            logger.warn("register rejected: {}", e.getMessage());
+            return busy();
+        }
         user.setFirstName(firstName);
         user.setLastName(lastName);
 
@@ -90,11 +102,16 @@ public class AuthController {
         }
 
         User user = optUser.get();
-        if (!BCrypt.checkpw(password, user.getPasswordHash())) {
-            return error(HttpStatus.UNAUTHORIZED, "invalid email or password");
+        try {
+            if (!passwordHasher.matches(password, user.getPasswordHash())) {
+                return error(HttpStatus.UNAUTHORIZED, "invalid email or password");
+            }
+        } catch (PasswordHasher.BusyException e) {
+            logger.warn("login rejected: {}", e.getMessage());
+            return busy();
         }
 
-        String token = jwtService.generateToken(user.getId(), user.getEmail());
+        String token = jwtService.generateToken(user.getId(), user.getEmail(), user.getUsername());
         long expiresAt = jwtService.getExpirationTimestamp() / 1000;
 
         logger.info("user logged in user_id={}", user.getId());
@@ -102,10 +119,22 @@ public class AuthController {
         Map<String, Object> resp = new LinkedHashMap<>();
         resp.put("token", token);
         resp.put("expires_at", expiresAt);
+        resp.put("user_id", user.getId());
         resp.put("username", user.getUsername());
         return ResponseEntity.ok(resp);
     }
 
+    // Needs no credentials, so the gateway rate-limits it per client address
+    @PostMapping("/guest")
+    public ResponseEntity<?> guest() {
+        String guestId = GUEST_ID_PREFIX + UUID.randomUUID();
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("token", jwtService.generateGuestToken(guestId));
+        resp.put("expires_at", jwtService.getExpirationTimestamp() / 1000);
+        resp.put("user_id", guestId);
+        return ResponseEntity.ok(resp);
+    }
+
     @GetMapping("/profile")
     public ResponseEntity<?> profile(@RequestHeader(value = "Authorization", required = false) String authHeader) {
         if (authHeader == null || !authHeader.startsWith("Bearer ")) {
@@ -149,6 +178,12 @@ public class AuthController {
         return s == null ? "" : s.trim();
     }
 
+    private ResponseEntity<Map<String, String>> busy() {
+        Map<String, String> resp = new LinkedHashMap<>();
+        resp.put("error", "server busy, please retry");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "1").body(resp);
+    }
+
     private ResponseEntity<Map<String, String>> error(HttpStatus status, String message) {
         Map<String, String> resp = new LinkedHashMap<>();
         resp.put("error", message);
@@ -1,7 +1,12 @@
 package hipstershop.auth.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,8 +14,18 @@ import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Issues and verifies HS256 tokens. Verified claims are cached by the
+ * SHA-256 of the token until the token's own expiry, so a client presenting
+ * the same token again skips parsing and the signature check. Only the
+ * hash is kept, never the token itself. Invalid tokens are not cached.
+ */
 @Service
 public class JwtService {
 
@@ -18,10 +33,14 @@ public class JwtService {
 
     private final SecretKey key;
     private final long expirationMs;
+    private final JwtParser parser;
+    private final Cache<String, Claims> verified;
 
     public JwtService(
             @Value("${jwt.secret}") String secret,
-            @Value("${jwt.expiration-ms}") long expirationMs) {
+            @Value("${jwt.expiration-ms}") long expirationMs,
+            @Value("${jwt.cache.max-size:100000}") long cacheMaxSize,
+            MeterRegistry meterRegistry) {
         // Ensure key is at least 256 bits for HS256
         byte[] keyBytes = secret.getBytes(StandardCharsets.UTF_8);
         if (keyBytes.length < 32) {
@@ -32,10 +51,17 @@ public class JwtService {
             this.key = Keys.hmacShaKeyFor(keyBytes);
         }
         this.expirationMs = expirationMs;
+        this.parser = Jwts.parser().verifyWith(key).build();
+        this.verified = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfter(new UntilTokenExpiry(expirationMs))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verified, "auth.jwt.verified");
         logger.info("JWT initialized");
     }
 
-    public String generateToken(String userId, String email) {
+    public String generateToken(String userId, String email, String username) {
         Date now = new Date();
         Date expiry = new Date(now.getTime() + expirationMs);
 
@@ -43,6 +69,25 @@ public class JwtService {
                 .subject(userId)
                 .claim("user_id", userId)
                 .claim("email", email)
+                .claim("username", username)
+                .issuer("authservice")
+                .issuedAt(now)
+                .expiration(expiry)
+                .signWith(key)
+                .compact();
+    }
+
+    /**
+     * Issues a token for an anonymous shopper. It carries only the guest id,
+     * which the frontend uses as the key of the guest's cart.
+     */
+    public String generateGuestToken(String guestId) {
+        Date now = new Date();
+        Date expiry = new Date(now.getTime() + expirationMs);
+
+        return Jwts.builder()
+                .subject(guestId)
+                .claim("user_id", guestId)
                 .issuer("authservice")
                 .issuedAt(now)
                 .expiration(expiry)
@@ -55,12 +100,15 @@ public class JwtService {
     }
 
     public Claims validateToken(String token) {
+        String hash = sha256(token);
+        Claims cached = verified.getIfPresent(hash);
+        if (cached != null) {
+            return cached;
+        }
         try {
-            return Jwts.parser()
-                    .verifyWith(key)
-                    .build()
-                    .parseSignedClaims(token)
-                    .getPayload();
+            Claims claims = parser.parseSignedClaims(token).getPayload();
+            verified.put(hash, claims);
+            return claims;
         } catch (JwtException e) {
             logger.warn("Invalid JWT token: {}", e.getMessage());
             return null;
@@ -71,4 +119,36 @@ public class JwtService {
         Claims claims = validateToken(token);
         return claims != null ? claims.get("user_id", String.class) : null;
     }
+
+    private static String sha256(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Expires each entry at its token's exp claim. Tokens without one are
+     * kept no longer than the lifetime of a token issued here.
+     */
+    private record UntilTokenExpiry(long maxLifetimeMs) implements Expiry<String, Claims> {
+        @Override
+        public long expireAfterCreate(String key, Claims claims, long currentTime) {
+            Date exp = claims.getExpiration();
+            long remainingMs = exp != null ? exp.getTime() - System.currentTimeMillis() : maxLifetimeMs;
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, Math.min(remainingMs, maxLifetimeMs)));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Claims claims, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+        @Override
+        public long expireAfterRead(String key, Claims claims, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
 }
@@ -0,0 +1,147 @@
+package hipstershop.auth.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.mindrot.jbcrypt.BCrypt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs BCrypt on a fixed pool sized to the CPUs instead of on request
+ * threads. BCrypt is deliberately slow, so a login storm would otherwise
+ * tie up every servlet thread. The pool has a bounded queue: when it is
+ * full, or a request waits longer than the timeout, {@link BusyException}
+ * is thrown and the caller answers 503. Cheap endpoints such as
+ * /api/profile keep their threads and CPU.
+ */
+@Service
+public class PasswordHasher {
+
+    private static final Logger logger = LoggerFactory.getLogger(PasswordHasher.class);
+
+    private final ThreadPoolExecutor executor;
+    private final int cost;
+    private final Duration timeout;
+
+    private final Timer hashTimer;
+    private final Timer verifyTimer;
+    private final Timer queueWait;
+    private final Counter rejected;
+
+    public PasswordHasher(MeterRegistry meterRegistry,
+                          @Value("${auth.bcrypt.cost:10}") int cost,
+                          @Value("${auth.bcrypt.threads:0}") int threads,
+                          @Value("${auth.bcrypt.queue-capacity:64}") int queueCapacity,
+                          @Value("${auth.bcrypt.timeout:5s}") Duration timeout) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadIds = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "bcrypt-" + threadIds.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.cost = cost;
+        this.timeout = timeout;
+
+        Gauge.builder("auth.bcrypt.queue.depth", executor.getQueue(), BlockingQueue::size)
+                .description("Password hashes waiting for a BCrypt worker")
+                .register(meterRegistry);
+        this.hashTimer = Timer.builder("auth.bcrypt.duration")
+                .description("Time spent computing a BCrypt hash")
+                .tag("operation", "hash")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.verifyTimer = Timer.builder("auth.bcrypt.duration")
+                .description("Time spent computing a BCrypt hash")
+                .tag("operation", "verify")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.queueWait = Timer.builder("auth.bcrypt.queue.wait")
+                .description("Time a password hash waited for a BCrypt worker")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.rejected = Counter.builder("auth.bcrypt.rejected")
+                .description("Password hashes turned away because the BCrypt pool was saturated")
+                .register(meterRegistry);
+        logger.info("BCrypt pool: {} threads, queue {}, cost {}", poolSize, queueCapacity, cost);
+    }
+
+    public String hash(String password) {
+        return run(hashTimer, () -> BCrypt.hashpw(password, BCrypt.gensalt(cost)));
+    }
+
+    public boolean matches(String password, String hash) {
+        return run(verifyTimer, () -> BCrypt.checkpw(password, hash));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> T run(Timer timer, Callable<T> work) {
+        long enqueued = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                long started = System.nanoTime();
+                queueWait.record(started - enqueued, TimeUnit.NANOSECONDS);
+                try {
+                    return work.call();
+                } finally {
+                    timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new BusyException("BCrypt pool is saturated");
+        }
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejected.increment();
+            throw new BusyException("BCrypt did not finish within " + timeout);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new BusyException("Interrupted while waiting for BCrypt");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Thrown when a password cannot be hashed in time because the pool is busy.
+     */
+    public static class BusyException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public BusyException(String message) {
+            super(message);
+        }
+    }
+}
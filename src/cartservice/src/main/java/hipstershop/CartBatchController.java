@@ -0,0 +1,50 @@
+package hipstershop;
+
+import hipstershop.model.Cart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batch operations across many users' carts, for other services and
+ * operators. They live under /internal, which the API gateway does not
+ * route, so no shopper can read or empty somebody else's cart with them.
+ */
+@RestController
+@RequestMapping("/internal/cart")
+public class CartBatchController {
+
+    private static final Logger logger = LoggerFactory.getLogger(CartBatchController.class);
+    private final CartStore store;
+
+    public CartBatchController(CartStore store) {
+        this.store = store;
+    }
+
+    @PostMapping("/_batch/get")
+    public ResponseEntity<Map<String, Cart>> getCarts(@RequestBody List<String> userIds) {
+        logger.debug("GetCarts count={}", userIds.size());
+        try {
+            return ResponseEntity.ok(store.getCarts(userIds));
+        } catch (Exception e) {
+            logger.error("GetCarts failed", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    @PostMapping("/_batch/empty")
+    public ResponseEntity<Void> emptyCarts(@RequestBody List<String> userIds) {
+        logger.debug("EmptyCarts count={}", userIds.size());
+        try {
+            store.emptyCarts(userIds);
+            return ResponseEntity.ok().build();
+        } catch (Exception e) {
+            logger.error("EmptyCarts failed", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package hipstershop;
+
+import hipstershop.model.Cart;
+import hipstershop.model.CartItem;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding for carts held in memory.
+ * Layout (v1): version byte, varint item count, then per item a varint
+ * productId length, the UTF-8 productId and a zigzag varint quantity.
+ * The userId is not stored since it is always the key.
+ */
+public final class CartCodec {
+
+    static final byte VERSION_1 = 1;
+
+    private CartCodec() {}
+
+    public static byte[] encode(Cart cart) {
+        byte[][] ids = new byte[cart.getItems().size()][];
+        int size = 1 + varintSize(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            CartItem item = cart.getItems().get(i);
+            ids[i] = item.getProductId().getBytes(StandardCharsets.UTF_8);
+            size += varintSize(ids[i].length) + ids[i].length + varintSize(zigzag(item.getQuantity()));
+        }
+
+        byte[] out = new byte[size];
+        out[0] = VERSION_1;
+        int pos = writeVarint(out, 1, ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            pos = writeVarint(out, pos, ids[i].length);
+            System.arraycopy(ids[i], 0, out, pos, ids[i].length);
+            pos += ids[i].length;
+            pos = writeVarint(out, pos, zigzag(cart.getItems().get(i).getQuantity()));
+        }
+        return out;
+    }
+
+    public static Cart decode(String userId, byte[] data) {
+        Cart cart = new Cart(userId);
+        if (data == null || data.length == 0) {
+            return cart;
+        }
+        if (data[0] != VERSION_1) {
+            throw new IllegalArgumentException("Unknown cart encoding version " + data[0]);
+        }
+
+        int[] pos = {1};
+        int count = readVarint(data, pos);
+        for (int i = 0; i < count; i++) {
+            int len = readVarint(data, pos);
+            String productId = new String(data, pos[0], len, StandardCharsets.UTF_8);
+            pos[0] += len;
+            int quantity = unzigzag(readVarint(data, pos));
+            cart.getItems().add(new CartItem(productId, quantity));
+        }
+        return cart;
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarint(byte[] out, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int readVarint(byte[] in, int[] pos) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in cart encoding");
+    }
+}
@@ -1,20 +1,42 @@
 package hipstershop;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+
 @Configuration
 public class CartConfig {
 
     @Value("${redis.addr:}")
     private String redisAddr;
 
+    @Value("${cart.near-cache.enabled:true}")
+    private boolean nearCacheEnabled;
+
+    @Value("${cart.near-cache.max-size:10000}")
+    private long nearCacheMaxSize;
+
+    @Value("${cart.near-cache.ttl:5m}")
+    private Duration nearCacheTtl;
+
+    @Value("${cart.memory.max-bytes:67108864}")
+    private long memoryMaxBytes;
+
+    @Value("${cart.memory.ttl:24h}")
+    private Duration memoryTtl;
+
     @Bean
-    public CartStore cartStore() {
+    public CartStore cartStore(MeterRegistry meterRegistry) {
         if (redisAddr != null && !redisAddr.isEmpty()) {
-            return new RedisCartStore(redisAddr);
+            RedisCartStore redis = new RedisCartStore(redisAddr);
+            if (nearCacheEnabled) {
+                return new NearCacheCartStore(redis, nearCacheMaxSize, nearCacheTtl, meterRegistry);
+            }
+            return redis;
         }
-        return new InMemoryCartStore();
+        return new InMemoryCartStore(memoryMaxBytes, memoryTtl, meterRegistry);
     }
 }
@@ -7,6 +7,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/cart")
 public class CartController {
@@ -83,4 +85,16 @@ public class CartController {
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    @PostMapping("/{userId}/items/_batch")
+    public ResponseEntity<Void> addItems(@PathVariable String userId, @RequestBody List<CartItem> items) {
+        logger.debug("AddItems userId={} count={}", userId, items.size());
+        try {
+            store.addItems(userId, items);
+            return ResponseEntity.ok().build();
+        } catch (Exception e) {
+            logger.error("AddItems failed", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
 }
@@ -1,6 +1,11 @@
 package hipstershop;
 
 import hipstershop.model.Cart;
+import hipstershop.model.CartItem;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Interface for cart storage backends.
@@ -11,4 +16,17 @@ public interface CartStore {
     void removeItem(String userId, String productId) throws Exception;
     Cart getCart(String userId) throws Exception;
     void emptyCart(String userId) throws Exception;
+
+    /**
+     * Returns the carts of all given users, keyed by userId. Users without a
+     * cart map to an empty cart.
+     */
+    Map<String, Cart> getCarts(Collection<String> userIds) throws Exception;
+
+    /**
+     * Adds several items to one cart as a single operation.
+     */
+    void addItems(String userId, List<CartItem> items) throws Exception;
+
+    void emptyCarts(Collection<String> userIds) throws Exception;
 }
@@ -1,37 +1,63 @@
 package hipstershop;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import hipstershop.model.Cart;
 import hipstershop.model.CartItem;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 
-import java.util.ArrayList;
-import java.util.concurrent.ConcurrentHashMap;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
 /**
- * In-memory cart store for development and testing.
+ * In-memory cart store for single-node deployments, development and testing.
+ * Carts are kept in CartCodec form under a byte budget; the least valuable
+ * carts are evicted when it is exceeded, carts expire after the same 24h of
+ * write inactivity as in Redis, and carts that become empty are dropped.
  */
 public class InMemoryCartStore implements CartStore {
 
-    private final ConcurrentHashMap<String, Cart> carts = new ConcurrentHashMap<>();
+    private static final int ENTRY_OVERHEAD_BYTES = 96; // map node, key and array headers
+
+    private final Cache<String, byte[]> cache;
+    private final ConcurrentMap<String, byte[]> carts;
+
+    public InMemoryCartStore(long maxBytes, Duration ttl, MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String userId, byte[] data) -> ENTRY_OVERHEAD_BYTES + 2 * userId.length() + data.length)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.carts = cache.asMap();
+        // Cart count is the cache.size{cache="cart.memory"} gauge registered here
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "cart.memory");
+        Gauge.builder("cart.memory.bytes", cache,
+                        c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L))
+                .description("Estimated heap used by the in-memory cart store")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
 
     @Override
     public void addItem(String userId, String productId, int quantity) {
-        carts.compute(userId, (key, existingCart) -> {
-            Cart cart = existingCart != null ? existingCart : new Cart(userId);
-
-            for (CartItem item : cart.getItems()) {
-                if (item.getProductId().equals(productId)) {
-                    item.setQuantity(item.getQuantity() + quantity);
-                    return cart;
-                }
-            }
-            cart.getItems().add(new CartItem(productId, quantity));
-            return cart;
+        carts.compute(userId, (key, existing) -> {
+            Cart cart = CartCodec.decode(userId, existing);
+            add(cart, productId, quantity);
+            return encode(cart);
         });
     }
 
     @Override
     public void updateItemQuantity(String userId, String productId, int quantity) {
-        carts.computeIfPresent(userId, (key, cart) -> {
+        modify(userId, cart -> {
             if (quantity <= 0) {
                 cart.getItems().removeIf(item -> item.getProductId().equals(productId));
             } else {
@@ -42,25 +68,73 @@ public class InMemoryCartStore implements CartStore {
                     }
                 }
             }
-            return cart;
         });
     }
 
     @Override
     public void removeItem(String userId, String productId) {
-        carts.computeIfPresent(userId, (key, cart) -> {
-            cart.getItems().removeIf(item -> item.getProductId().equals(productId));
-            return cart;
-        });
+        modify(userId, cart -> cart.getItems().removeIf(item -> item.getProductId().equals(productId)));
     }
 
     @Override
     public Cart getCart(String userId) {
-        return carts.getOrDefault(userId, new Cart(userId));
+        return CartCodec.decode(userId, carts.get(userId));
     }
 
     @Override
     public void emptyCart(String userId) {
-        carts.put(userId, new Cart(userId));
+        carts.remove(userId);
+    }
+
+    @Override
+    public Map<String, Cart> getCarts(Collection<String> userIds) {
+        Map<String, Cart> result = new LinkedHashMap<>();
+        for (String userId : userIds) {
+            result.put(userId, getCart(userId));
+        }
+        return result;
+    }
+
+    @Override
+    public void addItems(String userId, List<CartItem> items) {
+        // One compute for the whole batch, so readers never see half of it
+        carts.compute(userId, (key, existing) -> {
+            Cart cart = CartCodec.decode(userId, existing);
+            for (CartItem item : items) {
+                add(cart, item.getProductId(), item.getQuantity());
+            }
+            return encode(cart);
+        });
+    }
+
+    @Override
+    public void emptyCarts(Collection<String> userIds) {
+        cache.invalidateAll(userIds);
+    }
+
+    private void modify(String userId, Consumer<Cart> change) {
+        carts.computeIfPresent(userId, (key, existing) -> {
+            Cart cart = CartCodec.decode(userId, existing);
+            change.accept(cart);
+            return encode(cart);
+        });
+    }
+
+    private static void add(Cart cart, String productId, int quantity) {
+        for (CartItem item : cart.getItems()) {
+            if (item.getProductId().equals(productId)) {
+                item.setQuantity(item.getQuantity() + quantity);
+                return;
+            }
+        }
+        cart.getItems().add(new CartItem(productId, quantity));
+    }
+
+    /**
+     * Returns null for an empty cart so the map entry is removed.
+     */
+    private static byte[] encode(Cart cart) {
+        cart.getItems().removeIf(item -> item.getQuantity() <= 0);
+        return cart.getItems().isEmpty() ? null : CartCodec.encode(cart);
     }
 }
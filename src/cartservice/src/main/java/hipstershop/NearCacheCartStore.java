@@ -0,0 +1,151 @@
+package hipstershop;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import hipstershop.model.Cart;
+import hipstershop.model.CartItem;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Two-tier cart store: a bounded local cache in front of Redis.
+ * Reads are served from the JVM while the invalidation subscription is up;
+ * writes go straight to Redis, which broadcasts the change to every replica.
+ * While the subscription is down the local tier is bypassed entirely.
+ * Carts are held in their compact CartCodec form, so every hit decodes a
+ * private copy and cached entries cost a few bytes per item.
+ */
+public class NearCacheCartStore implements CartStore, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(NearCacheCartStore.class);
+
+    private final RedisCartStore delegate;
+    private final Cache<String, byte[]> cache;
+    private final AutoCloseable subscription;
+    private volatile boolean connected;
+
+    public NearCacheCartStore(RedisCartStore delegate, long maxSize, Duration ttl, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "cart.near");
+        this.subscription = delegate.subscribeInvalidations(new RedisCartStore.InvalidationListener() {
+            @Override
+            public void invalidate(String userId) {
+                cache.invalidate(userId);
+            }
+
+            @Override
+            public void connected() {
+                cache.invalidateAll();
+                connected = true;
+                logger.info("Cart near cache enabled");
+            }
+
+            @Override
+            public void disconnected() {
+                connected = false;
+                cache.invalidateAll();
+            }
+        });
+    }
+
+    @Override
+    public void addItem(String userId, String productId, int quantity) {
+        try {
+            delegate.addItem(userId, productId, quantity);
+        } finally {
+            cache.invalidate(userId);
+        }
+    }
+
+    @Override
+    public void updateItemQuantity(String userId, String productId, int quantity) {
+        try {
+            delegate.updateItemQuantity(userId, productId, quantity);
+        } finally {
+            cache.invalidate(userId);
+        }
+    }
+
+    @Override
+    public void removeItem(String userId, String productId) {
+        try {
+            delegate.removeItem(userId, productId);
+        } finally {
+            cache.invalidate(userId);
+        }
+    }
+
+    @Override
+    public Cart getCart(String userId) {
+        if (!connected) {
+            return delegate.getCart(userId);
+        }
+        // An invalidation racing with this load blocks until it finishes and then evicts it
+        return CartCodec.decode(userId, cache.get(userId, id -> CartCodec.encode(delegate.getCart(id))));
+    }
+
+    @Override
+    public void emptyCart(String userId) {
+        try {
+            delegate.emptyCart(userId);
+        } finally {
+            cache.invalidate(userId);
+        }
+    }
+
+    @Override
+    public Map<String, Cart> getCarts(Collection<String> userIds) {
+        if (!connected) {
+            return delegate.getCarts(userIds);
+        }
+        Map<String, byte[]> cached = cache.getAll(userIds, missing -> {
+            Map<String, byte[]> loaded = new HashMap<>();
+            delegate.getCarts(new ArrayList<>(missing)).forEach((id, cart) -> loaded.put(id, CartCodec.encode(cart)));
+            return loaded;
+        });
+        Map<String, Cart> result = new LinkedHashMap<>();
+        for (String userId : userIds) {
+            result.put(userId, CartCodec.decode(userId, cached.get(userId)));
+        }
+        return result;
+    }
+
+    @Override
+    public void addItems(String userId, List<CartItem> items) {
+        try {
+            delegate.addItems(userId, items);
+        } finally {
+            cache.invalidate(userId);
+        }
+    }
+
+    @Override
+    public void emptyCarts(Collection<String> userIds) {
+        try {
+            delegate.emptyCarts(userIds);
+        } finally {
+            cache.invalidateAll(userIds);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        subscription.close();
+        delegate.close();
+    }
+}
@@ -1,24 +1,121 @@
 package hipstershop;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import hipstershop.model.Cart;
 import hipstershop.model.CartItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Redis-backed cart store using JSON serialization.
+ * Redis-backed cart store.
+ * Each cart is a hash of productId -> quantity under "cart:<userId>". Every
+ * operation is a single server-side Lua script, so mutations are atomic and
+ * cost one round trip regardless of cart size. Carts still stored in the old
+ * JSON string format (key = userId) are migrated on first access.
+ * Multi-cart reads are pipelined so they cost one round trip in total.
+ * Every mutation publishes the userId on a channel so near caches on other
+ * replicas can drop their copy.
+ *
+ * Only a standalone Redis server is supported, not Redis Cluster: each
+ * script touches both the cart hash and the legacy key, which is the bare
+ * userId and so hashes to a different slot, and multi-cart pipelines span
+ * many users' keys on one connection.
  */
 public class RedisCartStore implements CartStore {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisCartStore.class);
     private static final int CART_TTL_SECONDS = 86400; // 24 hours
+    private static final String KEY_PREFIX = "cart:";
+    static final String INVALIDATION_CHANNEL = "cart:invalidations";
+
+    // KEYS[1] = cart hash, KEYS[2] = legacy JSON key, ARGV[1] = TTL seconds
+    private static final String MIGRATE = """
+            local function migrate()
+              if redis.call('TYPE', KEYS[2]).ok ~= 'string' then return end
+              local ttl = redis.call('PTTL', KEYS[2])
+              local legacy = cjson.decode(redis.call('GET', KEYS[2]))
+              if type(legacy.items) == 'table' then
+                for _, item in ipairs(legacy.items) do
+                  if type(item.productId) == 'string' and tonumber(item.quantity) and item.quantity > 0 then
+                    redis.call('HINCRBY', KEYS[1], item.productId, item.quantity)
+                  end
+                end
+              end
+              redis.call('DEL', KEYS[2])
+              if ttl > 0 and redis.call('EXISTS', KEYS[1]) == 1 then
+                redis.call('PEXPIRE', KEYS[1], ttl)
+              end
+            end
+            migrate()
+            """;
+
+    // ARGV[2] = productId, ARGV[3] = quantity delta
+    private static final Script ADD_ITEM = new Script(MIGRATE + """
+            local qty = redis.call('HINCRBY', KEYS[1], ARGV[2], ARGV[3])
+            if qty <= 0 then redis.call('HDEL', KEYS[1], ARGV[2]) end
+            if redis.call('EXISTS', KEYS[1]) == 1 then redis.call('EXPIRE', KEYS[1], ARGV[1]) end
+            redis.call('PUBLISH', '%s', KEYS[2])
+            return qty
+            """.formatted(INVALIDATION_CHANNEL));
+
+    // ARGV[2] = productId, ARGV[3] = new quantity; only existing items are updated
+    private static final Script UPDATE_ITEM = new Script(MIGRATE + """
+            if redis.call('EXISTS', KEYS[1]) == 0 then return 0 end
+            if tonumber(ARGV[3]) <= 0 then
+              redis.call('HDEL', KEYS[1], ARGV[2])
+            elseif redis.call('HEXISTS', KEYS[1], ARGV[2]) == 1 then
+              redis.call('HSET', KEYS[1], ARGV[2], ARGV[3])
+            end
+            if redis.call('EXISTS', KEYS[1]) == 1 then redis.call('EXPIRE', KEYS[1], ARGV[1]) end
+            redis.call('PUBLISH', '%s', KEYS[2])
+            return 1
+            """.formatted(INVALIDATION_CHANNEL));
+
+    // ARGV[2] = productId
+    private static final Script REMOVE_ITEM = new Script(MIGRATE + """
+            redis.call('HDEL', KEYS[1], ARGV[2])
+            if redis.call('EXISTS', KEYS[1]) == 1 then redis.call('EXPIRE', KEYS[1], ARGV[1]) end
+            redis.call('PUBLISH', '%s', KEYS[2])
+            return 1
+            """.formatted(INVALIDATION_CHANNEL));
+
+    // ARGV[2..] = productId, quantity delta pairs
+    private static final Script ADD_ITEMS = new Script(MIGRATE + """
+            for i = 2, #ARGV, 2 do
+              local qty = redis.call('HINCRBY', KEYS[1], ARGV[i], ARGV[i + 1])
+              if qty <= 0 then redis.call('HDEL', KEYS[1], ARGV[i]) end
+            end
+            if redis.call('EXISTS', KEYS[1]) == 1 then redis.call('EXPIRE', KEYS[1], ARGV[1]) end
+            redis.call('PUBLISH', '%s', KEYS[2])
+            return 1
+            """.formatted(INVALIDATION_CHANNEL));
+
+    private static final Script GET_CART = new Script(MIGRATE + """
+            return redis.call('HGETALL', KEYS[1])
+            """);
+
+    private static final Script EMPTY_CART = new Script("""
+            redis.call('DEL', KEYS[1], KEYS[2])
+            redis.call('PUBLISH', '%s', KEYS[2])
+            return 1
+            """.formatted(INVALIDATION_CHANNEL));
+
     private final JedisPool pool;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final String host;
+    private final int port;
 
     public RedisCartStore(String redisAddr) {
         String host;
@@ -32,93 +129,252 @@ public class RedisCartStore implements CartStore {
         }
         JedisPoolConfig config = new JedisPoolConfig();
         config.setMaxTotal(10);
+        this.host = host;
+        this.port = port;
         pool = new JedisPool(config, host, port);
         logger.info("Redis cart store initialized at {}:{}", host, port);
     }
 
     @Override
-    public void addItem(String userId, String productId, int quantity) throws Exception {
+    public void addItem(String userId, String productId, int quantity) {
         try (Jedis jedis = pool.getResource()) {
-            String data = jedis.get(userId);
-            Cart cart;
-            if (data != null) {
-                cart = mapper.readValue(data, Cart.class);
-            } else {
-                cart = new Cart(userId);
-            }
-
-            boolean found = false;
-            for (CartItem item : cart.getItems()) {
-                if (item.getProductId().equals(productId)) {
-                    item.setQuantity(item.getQuantity() + quantity);
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
-                cart.getItems().add(new CartItem(productId, quantity));
-            }
+            ADD_ITEM.eval(jedis, userId, productId, Integer.toString(quantity));
+        }
+    }
 
-            jedis.setex(userId, CART_TTL_SECONDS, mapper.writeValueAsString(cart));
+    @Override
+    public void updateItemQuantity(String userId, String productId, int quantity) {
+        try (Jedis jedis = pool.getResource()) {
+            UPDATE_ITEM.eval(jedis, userId, productId, Integer.toString(quantity));
         }
     }
 
     @Override
-    public void updateItemQuantity(String userId, String productId, int quantity) throws Exception {
+    public void removeItem(String userId, String productId) {
         try (Jedis jedis = pool.getResource()) {
-            String data = jedis.get(userId);
-            Cart cart;
-            if (data != null) {
-                cart = mapper.readValue(data, Cart.class);
-            } else {
-                return;
-            }
+            REMOVE_ITEM.eval(jedis, userId, productId);
+        }
+    }
 
-            if (quantity <= 0) {
-                cart.getItems().removeIf(item -> item.getProductId().equals(productId));
-            } else {
-                for (CartItem item : cart.getItems()) {
-                    if (item.getProductId().equals(productId)) {
-                        item.setQuantity(quantity);
-                        break;
-                    }
-                }
-            }
+    @Override
+    public Cart getCart(String userId) {
+        try (Jedis jedis = pool.getResource()) {
+            return toCart(userId, GET_CART.eval(jedis, userId));
+        }
+    }
 
-            jedis.setex(userId, CART_TTL_SECONDS, mapper.writeValueAsString(cart));
+    @Override
+    public void emptyCart(String userId) {
+        try (Jedis jedis = pool.getResource()) {
+            EMPTY_CART.eval(jedis, userId);
         }
     }
 
     @Override
-    public void removeItem(String userId, String productId) throws Exception {
+    public Map<String, Cart> getCarts(Collection<String> userIds) {
+        Map<String, Cart> result = new LinkedHashMap<>();
+        if (userIds.isEmpty()) {
+            return result;
+        }
         try (Jedis jedis = pool.getResource()) {
-            String data = jedis.get(userId);
-            if (data != null) {
-                Cart cart = mapper.readValue(data, Cart.class);
-                cart.getItems().removeIf(item -> item.getProductId().equals(productId));
-                jedis.setex(userId, CART_TTL_SECONDS, mapper.writeValueAsString(cart));
+            Map<String, Response<Object>> replies;
+            try {
+                replies = getCartsPipelined(jedis, userIds);
+            } catch (JedisNoScriptException e) {
+                // Script cache was flushed since it was loaded; reads are safe to replay
+                GET_CART.reload(jedis);
+                replies = getCartsPipelined(jedis, userIds);
             }
+            for (Map.Entry<String, Response<Object>> e : replies.entrySet()) {
+                result.put(e.getKey(), toCart(e.getKey(), e.getValue().get()));
+            }
+        }
+        return result;
+    }
+
+    private Map<String, Response<Object>> getCartsPipelined(Jedis jedis, Collection<String> userIds) {
+        GET_CART.load(jedis);
+        Map<String, Response<Object>> replies = new LinkedHashMap<>();
+        Pipeline pipeline = jedis.pipelined();
+        for (String userId : userIds) {
+            replies.put(userId, GET_CART.eval(pipeline, userId));
+        }
+        pipeline.sync();
+        for (Response<Object> reply : replies.values()) {
+            reply.get(); // surfaces NOSCRIPT before any reply is consumed
         }
+        return replies;
     }
 
     @Override
-    public Cart getCart(String userId) throws Exception {
+    public void addItems(String userId, List<CartItem> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        String[] args = new String[items.size() * 2];
+        for (int i = 0; i < items.size(); i++) {
+            args[2 * i] = items.get(i).getProductId();
+            args[2 * i + 1] = Integer.toString(items.get(i).getQuantity());
+        }
         try (Jedis jedis = pool.getResource()) {
-            String data = jedis.get(userId);
-            if (data != null) {
-                return mapper.readValue(data, Cart.class);
-            }
-            return new Cart(userId);
+            ADD_ITEMS.eval(jedis, userId, args);
         }
     }
 
     @Override
-    public void emptyCart(String userId) {
+    public void emptyCarts(Collection<String> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
         try (Jedis jedis = pool.getResource()) {
-            Cart emptyCart = new Cart(userId);
-            jedis.setex(userId, CART_TTL_SECONDS, mapper.writeValueAsString(emptyCart));
-        } catch (JsonProcessingException e) {
-            logger.error("Failed to serialize empty cart", e);
+            EMPTY_CART.load(jedis);
+            List<Response<Object>> replies = new ArrayList<>(userIds.size());
+            Pipeline pipeline = jedis.pipelined();
+            for (String userId : userIds) {
+                replies.add(EMPTY_CART.eval(pipeline, userId));
+            }
+            pipeline.sync();
+            try {
+                replies.forEach(Response::get);
+            } catch (JedisNoScriptException e) {
+                // Deleting is idempotent, so the whole batch can be replayed
+                EMPTY_CART.reload(jedis);
+                for (String userId : userIds) {
+                    EMPTY_CART.eval(jedis, userId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Subscribes to the invalidation messages that every mutation publishes.
+     * Runs on a dedicated connection and reconnects until the returned handle
+     * is closed. The listener is told when messages may have been missed.
+     */
+    public AutoCloseable subscribeInvalidations(InvalidationListener listener) {
+        JedisPubSub pubSub = new JedisPubSub() {
+            @Override
+            public void onMessage(String channel, String userId) {
+                listener.invalidate(userId);
+            }
+
+            @Override
+            public void onSubscribe(String channel, int subscribedChannels) {
+                listener.connected();
+            }
+        };
+        AtomicBoolean closed = new AtomicBoolean();
+        Thread subscriber = new Thread(() -> {
+            while (!closed.get()) {
+                try (Jedis jedis = new Jedis(host, port)) {
+                    jedis.subscribe(pubSub, INVALIDATION_CHANNEL);
+                } catch (Exception e) {
+                    if (!closed.get()) {
+                        logger.warn("Cart invalidation subscription lost: {}", e.getMessage());
+                    }
+                }
+                listener.disconnected();
+                if (!closed.get()) {
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "cart-invalidations");
+        subscriber.setDaemon(true);
+        subscriber.start();
+        return () -> {
+            closed.set(true);
+            if (pubSub.isSubscribed()) {
+                pubSub.unsubscribe();
+            }
+            subscriber.interrupt();
+        };
+    }
+
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * Receives cart invalidations published by any replica.
+     */
+    public interface InvalidationListener {
+        void invalidate(String userId);
+
+        /** Subscription (re)established; anything cached before may be stale. */
+        void connected();
+
+        /** Subscription lost; invalidations can no longer be trusted. */
+        void disconnected();
+    }
+
+    private static Cart toCart(String userId, Object reply) {
+        Cart cart = new Cart(userId);
+        if (reply instanceof List<?> fields) {
+            // HGETALL reply is a flat list: field1, value1, field2, value2, ...
+            for (int i = 0; i + 1 < fields.size(); i += 2) {
+                String productId = (String) fields.get(i);
+                int quantity = Integer.parseInt((String) fields.get(i + 1));
+                cart.getItems().add(new CartItem(productId, quantity));
+            }
+        }
+        return cart;
+    }
+
+    private static String cartKey(String userId) {
+        return KEY_PREFIX + userId;
+    }
+
+    /**
+     * A Lua script invoked by SHA, loading it on first use or after a
+     * SCRIPT FLUSH / failover.
+     */
+    private static final class Script {
+        private final String source;
+        private volatile String sha;
+
+        Script(String source) {
+            this.source = source;
+        }
+
+        Object eval(Jedis jedis, String userId, String... args) {
+            List<String> keys = List.of(cartKey(userId), userId);
+            List<String> argv = argv(args);
+            load(jedis);
+            try {
+                return jedis.evalsha(sha, keys, argv);
+            } catch (JedisNoScriptException e) {
+                reload(jedis);
+                return jedis.evalsha(sha, keys, argv);
+            }
+        }
+
+        /**
+         * Queues the script on a pipeline; load() must have been called
+         * before the pipeline was opened.
+         */
+        Response<Object> eval(Pipeline pipeline, String userId, String... args) {
+            return pipeline.evalsha(sha, List.of(cartKey(userId), userId), argv(args));
+        }
+
+        void load(Jedis jedis) {
+            if (sha == null) {
+                reload(jedis);
+            }
+        }
+
+        void reload(Jedis jedis) {
+            sha = jedis.scriptLoad(source);
+        }
+
+        private static List<String> argv(String... args) {
+            List<String> argv = new ArrayList<>(args.length + 1);
+            argv.add(Integer.toString(CART_TTL_SECONDS));
+            argv.addAll(List.of(args));
+            return argv;
         }
     }
 }
@@ -0,0 +1,36 @@
+package hipstershop;
+
+import hipstershop.model.Money;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares repeated-addition multiplySlow with constant-time multiply
+ * across cart line quantities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MoneyUtilsBenchmark {
+
+    @Param({"1", "10", "100", "10000"})
+    private int quantity;
+
+    private Money price;
+
+    @Setup
+    public void setup() {
+        price = new Money("USD", 19, 990_000_000);
+    }
+
+    @Benchmark
+    public Money multiplySlow() {
+        return MoneyUtils.multiplySlow(price, quantity);
+    }
+
+    @Benchmark
+    public Money multiply() {
+        return MoneyUtils.multiply(price, quantity);
+    }
+}
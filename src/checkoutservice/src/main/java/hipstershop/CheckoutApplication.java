@@ -3,7 +3,9 @@ package hipstershop;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
-import org.springframework.web.client.RestTemplate;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @SpringBootApplication
 public class CheckoutApplication {
@@ -12,8 +14,9 @@ public class CheckoutApplication {
         SpringApplication.run(CheckoutApplication.class, args);
     }
 
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService checkoutExecutor() {
+        // Stages are blocking HTTP calls; virtual threads keep them cheap and interruptible
+        return Executors.newVirtualThreadPerTaskExecutor();
     }
 }
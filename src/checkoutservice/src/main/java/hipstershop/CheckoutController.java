@@ -13,18 +13,31 @@ import java.util.List;
 public class CheckoutController {
 
     private static final Logger logger = LoggerFactory.getLogger(CheckoutController.class);
+    private static final int MAX_PAGE_SIZE = 100;
     private final CheckoutService checkoutService;
 
     public CheckoutController(CheckoutService checkoutService) {
         this.checkoutService = checkoutService;
     }
 
+    /**
+     * Places an order for the caller. Behind the gateway X-User-Id is the
+     * verified id of the token, and it wins over the userId in the body so
+     * nobody can check out another shopper's cart.
+     */
     @PostMapping
-    public ResponseEntity<PlaceOrderResponse> placeOrder(@RequestBody PlaceOrderRequest request) {
+    public ResponseEntity<PlaceOrderResponse> placeOrder(@RequestBody PlaceOrderRequest request,
+                                                         @RequestHeader(value = "X-User-Id", required = false) String callerId) {
+        if (callerId != null && !callerId.isEmpty()) {
+            request.setUserId(callerId);
+        }
         logger.info("[PlaceOrder] user_id={} user_currency={}", request.getUserId(), request.getUserCurrency());
         try {
             OrderResult result = checkoutService.placeOrder(request);
             return ResponseEntity.ok(new PlaceOrderResponse(result));
+        } catch (CheckoutService.UnknownProductException e) {
+            logger.warn("PlaceOrder rejected: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             logger.error("PlaceOrder failed", e);
             return ResponseEntity.internalServerError().build();
@@ -32,14 +45,46 @@ public class CheckoutController {
     }
 
     @GetMapping("/orders/{userId}")
-    public ResponseEntity<List<OrderResult>> getOrderHistory(@PathVariable String userId) {
+    public ResponseEntity<List<OrderResult>> getOrderHistory(@PathVariable String userId,
+                                                             @RequestParam(defaultValue = "50") int limit) {
         logger.info("[GetOrderHistory] user_id={}", userId);
         try {
-            List<OrderResult> orders = checkoutService.getOrderHistory(userId);
+            List<OrderResult> orders = checkoutService.getOrderHistory(userId, clampLimit(limit));
             return ResponseEntity.ok(orders);
         } catch (Exception e) {
             logger.error("GetOrderHistory failed", e);
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    @GetMapping("/orders/{userId}/summaries")
+    public ResponseEntity<OrderPage> getOrderSummaries(@PathVariable String userId,
+                                                       @RequestParam(defaultValue = "20") int limit,
+                                                       @RequestParam(required = false) String cursor) {
+        logger.debug("[GetOrderSummaries] user_id={} limit={}", userId, limit);
+        try {
+            return ResponseEntity.ok(checkoutService.getOrderSummaries(userId, clampLimit(limit), cursor));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            logger.error("GetOrderSummaries failed", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    @GetMapping("/orders/{userId}/{orderId}")
+    public ResponseEntity<OrderResult> getOrder(@PathVariable String userId, @PathVariable String orderId) {
+        logger.debug("[GetOrder] user_id={} order_id={}", userId, orderId);
+        try {
+            OrderResult order = checkoutService.getOrder(userId, orderId);
+            return order != null ? ResponseEntity.ok(order) : ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            logger.error("GetOrder failed", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    private static int clampLimit(int limit) {
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
 }
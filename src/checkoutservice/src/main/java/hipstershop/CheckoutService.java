@@ -1,56 +1,115 @@
 package hipstershop;
 
+import com.mongodb.MongoCommandException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
 import hipstershop.model.*;
+import org.bson.BsonType;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
 import jakarta.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 
 @Service
 public class CheckoutService {
 
     private static final Logger logger = LoggerFactory.getLogger(CheckoutService.class);
 
-    private final RestTemplate restTemplate;
+    private final RestTemplate cartClient;
+    private final RestTemplate shippingClient;
+    private final RestTemplate paymentClient;
     private final MongoClient mongoClient;
+    private final ExecutorService checkoutExecutor;
+    private final ProductCache productCache;
+    private final OrderWriter orderWriter;
+    private final RecentOrdersCache recentOrders;
 
     @Value("${cart.service.addr}")
     private String cartServiceAddr;
 
-    @Value("${productcatalog.service.addr}")
-    private String productCatalogServiceAddr;
-
     @Value("${shipping.service.addr}")
     private String shippingServiceAddr;
 
     @Value("${payment.service.addr}")
     private String paymentServiceAddr;
 
+    @Value("${checkout.payment.max-attempts:2}")
+    private int paymentMaxAttempts;
+
+    @Value("${checkout.shipping.max-attempts:2}")
+    private int shippingMaxAttempts;
+
+    @Value("${checkout.stage.product.timeout:2s}")
+    private Duration productStageTimeout;
+
+    @Value("${checkout.stage.shipping-quote.timeout:2s}")
+    private Duration shippingQuoteStageTimeout;
+
+    // Fixed width (always nine fractional digits), so the strings sort in time order
+    static final DateTimeFormatter CREATED_AT_FORMAT =
+            DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSSSSSSSS'Z'").withZone(ZoneOffset.UTC);
+    private static final String CREATED_AT_PATTERN = "^\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{9}Z$";
+
+    private static final Bson HISTORY_SORT = Sorts.descending("createdAt", "orderId");
+    private static final Bson SUMMARY_PROJECTION = Projections.fields(Projections.excludeId(),
+            Projections.include("orderId", "shippingTrackingId", "totalCost", "userCurrency", "createdAt"));
+
     private MongoCollection<Document> ordersCollection;
 
-    public CheckoutService(RestTemplate restTemplate, MongoClient mongoClient) {
-        this.restTemplate = restTemplate;
+    public CheckoutService(@Qualifier("cart") RestTemplate cartClient,
+                           @Qualifier("shipping") RestTemplate shippingClient,
+                           @Qualifier("payment") RestTemplate paymentClient,
+                           MongoClient mongoClient,
+                           ExecutorService checkoutExecutor, ProductCache productCache,
+                           OrderWriter orderWriter, RecentOrdersCache recentOrders) {
+        this.cartClient = cartClient;
+        this.shippingClient = shippingClient;
+        this.paymentClient = paymentClient;
         this.mongoClient = mongoClient;
+        this.checkoutExecutor = checkoutExecutor;
+        this.productCache = productCache;
+        this.orderWriter = orderWriter;
+        this.recentOrders = recentOrders;
     }
 
     @PostConstruct
     public void init() {
         MongoDatabase db = mongoClient.getDatabase("checkoutdb");
         ordersCollection = db.getCollection("orders");
-        // Create index on userId for fast lookups
-        ordersCollection.createIndex(new Document("userId", 1));
-        ordersCollection.createIndex(new Document("createdAt", -1));
+        // History pages are served by one compound index; orderId breaks createdAt ties
+        ordersCollection.createIndex(Indexes.compoundIndex(
+                Indexes.ascending("userId"), Indexes.descending("createdAt"), Indexes.descending("orderId")));
+        dropIndexIfExists("userId_1");
+        dropIndexIfExists("createdAt_-1");
+        // Lets the write-behind writer replay batches without duplicating orders
+        ordersCollection.createIndex(new Document("orderId", 1), new IndexOptions().unique(true));
+        normalizeCreatedAt();
         logger.info("CheckoutService: MongoDB orders collection initialized");
     }
 
@@ -61,26 +120,32 @@ public class CheckoutService {
         List<CartItem> cartItems = getUserCart(request.getUserId());
         logger.info("Cart has {} items", cartItems.size());
 
-        // 2. Prepare order items (get product details)
-        List<OrderItem> orderItems = prepOrderItems(cartItems);
+        // 2 + 3. Product details and the shipping quote only depend on the cart,
+        // so they run concurrently and the slowest of them bounds this step
+        CheckoutStages stages = new CheckoutStages(checkoutExecutor);
+        CompletableFuture<List<OrderItem>> pendingItems = stages.fork("products", productStageTimeout,
+                () -> prepOrderItems(cartItems));
+        CompletableFuture<Money> pendingShipping = stages.fork("shipping-quote", shippingQuoteStageTimeout,
+                () -> quoteShipping(request.getAddress(), cartItems));
+        stages.join();
 
-        // 3. Get shipping quote
-        Money shippingCost = quoteShipping(request.getAddress(), cartItems);
+        List<OrderItem> orderItems = pendingItems.join();
+        Money shippingCost = pendingShipping.join();
 
         // 4. Calculate total (all prices are in USD internally)
-        Money total = new Money("USD", 0, 0);
-        total = MoneyUtils.sum(total, shippingCost);
+        List<Money> costs = new ArrayList<>(orderItems.size() + 1);
+        costs.add(shippingCost);
         for (OrderItem item : orderItems) {
-            Money itemCost = MoneyUtils.multiplySlow(item.getCost(), item.getItem().getQuantity());
-            total = MoneyUtils.sum(total, itemCost);
+            costs.add(MoneyUtils.multiply(item.getCost(), item.getItem().getQuantity()));
         }
+        Money total = MoneyUtils.total("USD", costs);
 
         // 5. Charge card
-        String txId = chargeCard(total, request.getCreditCard());
+        String txId = chargeCard(orderId, total, request.getCreditCard());
         logger.info("Payment went through (transaction_id: {})", txId);
 
         // 6. Ship order
-        String trackingId = shipOrder(request.getAddress(), cartItems);
+        String trackingId = shipOrder(orderId, request.getAddress(), cartItems);
 
         // 7. Empty cart
         emptyUserCart(request.getUserId());
@@ -98,23 +163,198 @@ public class CheckoutService {
         orderResult.setEmail(request.getEmail());
         orderResult.setTotalCost(total);
         orderResult.setUserCurrency(request.getUserCurrency() != null ? request.getUserCurrency() : "USD");
-        orderResult.setCreatedAt(Instant.now().toString());
+        orderResult.setCreatedAt(CREATED_AT_FORMAT.format(Instant.now()));
 
         // Save order to MongoDB
         saveOrder(orderResult);
+        recentOrders.recordPlaced(orderResult);
 
         return orderResult;
     }
 
-    public List<OrderResult> getOrderHistory(String userId) {
+    /**
+     * Rewrites createdAt values stored in the old variable-width
+     * Instant.toString() form ("...05Z", "...05.123Z") to the fixed-width
+     * form, so history pages compare them correctly. Safe to run on several
+     * replicas at once.
+     */
+    private void normalizeCreatedAt() {
+        Bson legacy = Filters.and(Filters.type("createdAt", BsonType.STRING),
+                Filters.not(Filters.regex("createdAt", CREATED_AT_PATTERN)));
+        int rewritten = 0;
+        for (Document doc : ordersCollection.find(legacy).projection(Projections.include("createdAt"))) {
+            String createdAt = doc.getString("createdAt");
+            try {
+                String normalized = CREATED_AT_FORMAT.format(Instant.parse(createdAt));
+                ordersCollection.updateOne(Filters.and(Filters.eq("_id", doc.get("_id")), Filters.eq("createdAt", createdAt)),
+                        Updates.set("createdAt", normalized));
+                rewritten++;
+            } catch (DateTimeParseException e) {
+                logger.warn("Order {} has an unparseable createdAt '{}'", doc.get("_id"), createdAt);
+            }
+        }
+        if (rewritten > 0) {
+            logger.info("Normalized createdAt on {} orders", rewritten);
+        }
+    }
+
+    private void dropIndexIfExists(String name) {
+        try {
+            ordersCollection.dropIndex(name);
+            logger.info("Dropped superseded orders index {}", name);
+        } catch (MongoCommandException e) {
+            // index not found: already dropped
+        }
+    }
+
+    /**
+     * Returns the user's most recent orders, newest first, with full details.
+     */
+    public List<OrderResult> getOrderHistory(String userId, int limit) {
+        if (limit <= recentOrders.capacity()) {
+            List<OrderResult> recent = recentOrders(userId);
+            return recent.subList(0, Math.min(limit, recent.size()));
+        }
+        return loadOrderHistory(userId, limit);
+    }
+
+    /**
+     * Returns the newest orders that fit in the recent-orders cache, filling
+     * it from MongoDB on a miss.
+     */
+    private List<OrderResult> recentOrders(String userId) {
+        List<OrderResult> recent = recentOrders.get(userId);
+        if (recent == null) {
+            recent = recentOrders.fill(userId, loadOrderHistory(userId, recentOrders.capacity()));
+        }
+        return recent;
+    }
+
+    private List<OrderResult> loadOrderHistory(String userId, int limit) {
         List<OrderResult> orders = new ArrayList<>();
         for (Document doc : ordersCollection.find(new Document("userId", userId))
-                .sort(new Document("createdAt", -1))) {
+                .sort(HISTORY_SORT)
+                .limit(limit)) {
             orders.add(documentToOrder(doc));
         }
         return orders;
     }
 
+    /**
+     * Returns one page of order summaries, newest first. The cursor is the
+     * nextCursor of the previous page, or null for the first page.
+     */
+    public OrderPage getOrderSummaries(String userId, int limit, String cursor) {
+        if ((cursor == null || cursor.isEmpty()) && limit <= recentOrders.capacity()) {
+            return firstSummaryPage(recentOrders(userId), limit);
+        }
+        Bson filter = Filters.eq("userId", userId);
+        if (cursor != null && !cursor.isEmpty()) {
+            String[] position = decodeCursor(cursor);
+            filter = Filters.and(filter, Filters.or(
+                    Filters.lt("createdAt", position[0]),
+                    Filters.and(Filters.eq("createdAt", position[0]), Filters.lt("orderId", position[1]))));
+        }
+
+        List<OrderSummary> summaries = new ArrayList<>();
+        for (Document doc : ordersCollection.find(filter)
+                .projection(SUMMARY_PROJECTION)
+                .sort(HISTORY_SORT)
+                .limit(limit + 1)) {
+            summaries.add(documentToSummary(doc));
+        }
+
+        String nextCursor = null;
+        if (summaries.size() > limit) {
+            summaries.remove(limit);
+            OrderSummary last = summaries.get(limit - 1);
+            nextCursor = encodeCursor(last.getCreatedAt(), last.getOrderId());
+        }
+        return new OrderPage(summaries, nextCursor);
+    }
+
+    private OrderPage firstSummaryPage(List<OrderResult> recent, int limit) {
+        List<OrderSummary> summaries = new ArrayList<>(Math.min(limit, recent.size()));
+        for (int i = 0; i < limit && i < recent.size(); i++) {
+            summaries.add(orderToSummary(recent.get(i)));
+        }
+        // A full cache entry may have older orders behind it, so hand out a cursor
+        String nextCursor = null;
+        if (recent.size() > limit || (recent.size() == limit && limit == recentOrders.capacity())) {
+            OrderSummary last = summaries.get(limit - 1);
+            nextCursor = encodeCursor(last.getCreatedAt(), last.getOrderId());
+        }
+        return new OrderPage(summaries, nextCursor);
+    }
+
+    /**
+     * Returns one order, including one that is placed but still waiting in
+     * the write-behind queue, or null if the user has no such order.
+     */
+    public OrderResult getOrder(String userId, String orderId) {
+        OrderResult cached = recentOrders.find(userId, orderId);
+        if (cached != null) {
+            return cached;
+        }
+        // Checked before MongoDB, so an order written between the two lookups is still found
+        Document pending = orderWriter.findPending(orderId);
+        if (pending != null) {
+            return userId.equals(pending.getString("userId")) ? documentToOrder(pending) : null;
+        }
+        Document doc = ordersCollection.find(Filters.and(
+                Filters.eq("orderId", orderId), Filters.eq("userId", userId))).first();
+        return doc != null ? documentToOrder(doc) : null;
+    }
+
+    private static String encodeCursor(String createdAt, String orderId) {
+        String raw = createdAt + "|" + orderId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decodeCursor(String cursor) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        int sep = raw.lastIndexOf('|');
+        if (sep < 0) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        // Cursors handed out before createdAt was fixed-width carry the old form
+        String createdAt;
+        try {
+            createdAt = CREATED_AT_FORMAT.format(Instant.parse(raw.substring(0, sep)));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        return new String[]{createdAt, raw.substring(sep + 1)};
+    }
+
+    private OrderSummary documentToSummary(Document doc) {
+        OrderSummary summary = new OrderSummary();
+        summary.setOrderId(doc.getString("orderId"));
+        summary.setShippingTrackingId(doc.getString("shippingTrackingId"));
+        summary.setCreatedAt(doc.getString("createdAt"));
+        summary.setUserCurrency(doc.getString("userCurrency") != null ? doc.getString("userCurrency") : "USD");
+        Document totalDoc = doc.get("totalCost", Document.class);
+        if (totalDoc != null) {
+            summary.setTotalCost(docToMoney(totalDoc));
+        }
+        return summary;
+    }
+
+    private static OrderSummary orderToSummary(OrderResult order) {
+        OrderSummary summary = new OrderSummary();
+        summary.setOrderId(order.getOrderId());
+        summary.setShippingTrackingId(order.getShippingTrackingId());
+        summary.setCreatedAt(order.getCreatedAt());
+        summary.setUserCurrency(order.getUserCurrency() != null ? order.getUserCurrency() : "USD");
+        summary.setTotalCost(order.getTotalCost());
+        return summary;
+    }
+
     private void saveOrder(OrderResult order) {
         try {
             Document doc = new Document()
@@ -138,10 +378,10 @@ public class CheckoutService {
             }
             doc.append("items", itemDocs);
 
-            ordersCollection.insertOne(doc);
-            logger.info("Order {} saved to MongoDB", order.getOrderId());
+            orderWriter.submit(doc);
+            logger.info("Order {} queued for persistence", order.getOrderId());
         } catch (Exception e) {
-            logger.error("Failed to save order {} to MongoDB: {}", order.getOrderId(), e.getMessage());
+            logger.error("Failed to queue order {} for persistence: {}", order.getOrderId(), e.getMessage());
         }
     }
 
@@ -217,19 +457,30 @@ public class CheckoutService {
 
     private List<CartItem> getUserCart(String userId) {
         String url = String.format("http://%s/api/cart/%s", cartServiceAddr, userId);
-        Cart cart = restTemplate.getForObject(url, Cart.class);
+        Cart cart = cartClient.getForObject(url, Cart.class);
         return cart != null && cart.getItems() != null ? cart.getItems() : new ArrayList<>();
     }
 
     private List<OrderItem> prepOrderItems(List<CartItem> cartItems) {
         List<OrderItem> orderItems = new ArrayList<>();
+        if (cartItems.isEmpty()) {
+            return orderItems;
+        }
+        List<String> ids = new ArrayList<>(cartItems.size());
         for (CartItem item : cartItems) {
-            String url = String.format("http://%s/api/products/%s", productCatalogServiceAddr, item.getProductId());
-            Product product = restTemplate.getForObject(url, Product.class);
-            if (product != null) {
-                Money price = product.getPriceUsd();
-                orderItems.add(new OrderItem(item, price));
+            ids.add(item.getProductId());
+        }
+
+        // Cache misses are resolved with one catalog round trip for the whole cart
+        Map<String, Product> byId = productCache.getAll(ids);
+
+        for (CartItem item : cartItems) {
+            Product product = byId.get(item.getProductId());
+            if (product == null) {
+                // Skipping the line would still ship it, uncharged, with the rest of the cart
+                throw new UnknownProductException(item.getProductId());
             }
+            orderItems.add(new OrderItem(item, product.getPriceUsd()));
         }
         return orderItems;
     }
@@ -241,7 +492,7 @@ public class CheckoutService {
         body.put("items", items);
 
         @SuppressWarnings("unchecked")
-        Map<String, Object> resp = restTemplate.postForObject(url, body, Map.class);
+        Map<String, Object> resp = shippingClient.postForObject(url, body, Map.class);
         if (resp != null && resp.containsKey("costUsd")) {
             @SuppressWarnings("unchecked")
             Map<String, Object> costMap = (Map<String, Object>) resp.get("costUsd");
@@ -254,40 +505,82 @@ public class CheckoutService {
         return new Money("USD", 0, 0);
     }
 
-    private String chargeCard(Money total, CreditCardInfo card) {
+    /**
+     * Charges the card using the order id as the idempotency key, so a charge
+     * that timed out or failed with a 5xx can be retried without charging twice.
+     */
+    private String chargeCard(String orderId, Money total, CreditCardInfo card) {
         String url = String.format("http://%s/api/payment/charge", paymentServiceAddr);
         Map<String, Object> body = new HashMap<>();
         body.put("amount", total);
         body.put("creditCard", card);
-
-        @SuppressWarnings("unchecked")
-        Map<String, Object> resp = restTemplate.postForObject(url, body, Map.class);
-        if (resp != null && resp.containsKey("transactionId")) {
-            return (String) resp.get("transactionId");
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Idempotency-Key", orderId);
+        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(body, headers);
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> resp = paymentClient.postForObject(url, entity, Map.class);
+                if (resp != null && resp.containsKey("transactionId")) {
+                    return (String) resp.get("transactionId");
+                }
+                throw new RuntimeException("Payment failed — no transaction ID returned");
+            } catch (ResourceAccessException | HttpServerErrorException e) {
+                if (attempt >= paymentMaxAttempts) {
+                    throw e;
+                }
+                logger.warn("Charge for order {} failed (attempt {}), retrying: {}", orderId, attempt, e.getMessage());
+            }
         }
-        throw new RuntimeException("Payment failed — no transaction ID returned");
     }
 
-    private String shipOrder(Address address, List<CartItem> items) {
+    private String shipOrder(String orderId, Address address, List<CartItem> items) {
         String url = String.format("http://%s/api/shipping/order", shippingServiceAddr);
         Map<String, Object> body = new HashMap<>();
         body.put("address", address);
         body.put("items", items);
-
-        @SuppressWarnings("unchecked")
-        Map<String, Object> resp = restTemplate.postForObject(url, body, Map.class);
-        if (resp != null && resp.containsKey("trackingId")) {
-            return (String) resp.get("trackingId");
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Idempotency-Key", orderId);
+        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(body, headers);
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> resp = shippingClient.postForObject(url, entity, Map.class);
+                if (resp != null && resp.containsKey("trackingId")) {
+                    return (String) resp.get("trackingId");
+                }
+                throw new RuntimeException("Shipping failed — no tracking ID returned");
+            } catch (ResourceAccessException | HttpServerErrorException e) {
+                if (attempt >= shippingMaxAttempts) {
+                    throw e;
+                }
+                logger.warn("Shipping order {} failed (attempt {}), retrying: {}", orderId, attempt, e.getMessage());
+            }
         }
-        throw new RuntimeException("Shipping failed — no tracking ID returned");
     }
 
     private void emptyUserCart(String userId) {
         try {
             String url = String.format("http://%s/api/cart/%s", cartServiceAddr, userId);
-            restTemplate.delete(url);
+            cartClient.delete(url);
         } catch (Exception e) {
             logger.warn("Failed to empty cart for user {}: {}", userId, e.getMessage());
         }
     }
+
+    /**
+     * Thrown when a cart holds a product the catalog does not know, which
+     * fails the order before the card is charged.
+     */
+    public static class UnknownProductException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public UnknownProductException(String productId) {
+            super("No product with ID " + productId);
+        }
+    }
 }
@@ -0,0 +1,111 @@
+package hipstershop;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs independent checkout stages concurrently.
+ * Each stage gets its own timeout; the first stage to fail or time out
+ * cancels (and interrupts) every other stage still running in the group.
+ */
+public final class CheckoutStages {
+
+    private final ExecutorService executor;
+    private final List<Stage<?>> stages = new ArrayList<>();
+    private volatile Throwable failure;
+
+    public CheckoutStages(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Fork starts a stage in the background and returns its pending result.
+     */
+    public synchronized <T> CompletableFuture<T> fork(String name, Duration timeout, Callable<T> task) {
+        if (failure != null) {
+            throw new IllegalStateException("Checkout stages already failed", failure);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> running = executor.submit(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        Stage<T> stage = new Stage<>(name, result, running);
+        stages.add(stage);
+
+        result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((value, err) -> {
+                    if (err != null) {
+                        running.cancel(true);
+                        fail(stage, err);
+                    }
+                });
+        return result;
+    }
+
+    /**
+     * Join waits for every forked stage. If any stage failed, the cause of
+     * the first failure is rethrown once all siblings have been cancelled.
+     */
+    public void join() {
+        CompletableFuture<?>[] all;
+        synchronized (this) {
+            all = stages.stream().map(s -> s.result).toArray(CompletableFuture[]::new);
+        }
+        try {
+            CompletableFuture.allOf(all).join();
+        } catch (CompletionException | CancellationException e) {
+            // fall through and report the first failure below
+        }
+        Throwable cause = failure;
+        if (cause instanceof RuntimeException re) {
+            throw re;
+        }
+        if (cause instanceof Error err) {
+            throw err;
+        }
+        if (cause != null) {
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void fail(Stage<?> origin, Throwable err) {
+        Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+        List<Stage<?>> siblings;
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            failure = cause instanceof TimeoutException
+                    ? new StageTimeoutException(origin.name, cause)
+                    : cause;
+            siblings = new ArrayList<>(stages);
+        }
+        for (Stage<?> s : siblings) {
+            if (s != origin) {
+                s.running.cancel(true);
+                s.result.cancel(false);
+            }
+        }
+    }
+
+    private record Stage<T>(String name, CompletableFuture<T> result, Future<?> running) {}
+
+    public static class StageTimeoutException extends RuntimeException {
+        public StageTimeoutException(String stage, Throwable cause) {
+            super("Checkout stage timed out: " + stage, cause);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package hipstershop;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+
+/**
+ * One pooled, keep-alive HTTP client per downstream service.
+ * Each target reads its own checkout.downstream.{target}.* settings, so a
+ * slow dependency can only exhaust its own pool and time out on its own.
+ * Request latency is recorded per target as http.client.requests (via
+ * RestTemplateBuilder) and pool usage as httpcomponents.httpclient.pool.*.
+ */
+@Configuration
+public class DownstreamClientConfig {
+
+    private final Environment env;
+    private final RestTemplateBuilder builder;
+    private final MeterRegistry meterRegistry;
+
+    public DownstreamClientConfig(Environment env, RestTemplateBuilder builder, MeterRegistry meterRegistry) {
+        this.env = env;
+        this.builder = builder;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Bean
+    @Qualifier("cart")
+    public RestTemplate cartRestTemplate() {
+        return restTemplate(cartHttpClient());
+    }
+
+    @Bean
+    @Qualifier("productcatalog")
+    public RestTemplate productCatalogRestTemplate() {
+        return restTemplate(productCatalogHttpClient());
+    }
+
+    @Bean
+    @Qualifier("shipping")
+    public RestTemplate shippingRestTemplate() {
+        return restTemplate(shippingHttpClient());
+    }
+
+    @Bean
+    @Qualifier("payment")
+    public RestTemplate paymentRestTemplate() {
+        return restTemplate(paymentHttpClient());
+    }
+
+    // The clients are beans so the context closes their pools on shutdown
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient cartHttpClient() {
+        return httpClient("cart");
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient productCatalogHttpClient() {
+        return httpClient("productcatalog");
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient shippingHttpClient() {
+        return httpClient("shipping");
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient paymentHttpClient() {
+        return httpClient("payment");
+    }
+
+    private RestTemplate restTemplate(CloseableHttpClient httpClient) {
+        return builder
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(httpClient))
+                .build();
+    }
+
+    private CloseableHttpClient httpClient(String target) {
+        String prefix = "checkout.downstream." + target + ".";
+        int maxConnections = env.getProperty(prefix + "max-connections", Integer.class, 50);
+        Duration connectTimeout = env.getProperty(prefix + "connect-timeout", Duration.class, Duration.ofSeconds(1));
+        Duration readTimeout = env.getProperty(prefix + "read-timeout", Duration.class, Duration.ofSeconds(5));
+        Duration poolTimeout = env.getProperty(prefix + "pool-timeout", Duration.class, Duration.ofSeconds(1));
+        Duration keepAlive = env.getProperty(prefix + "keep-alive", Duration.class, Duration.ofSeconds(30));
+
+        // Every request goes to a single host, so the per-route limit is the pool size
+        PoolingHttpClientConnectionManager pool = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .setTimeToLive(TimeValue.of(keepAlive.multipliedBy(10)))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+        new PoolingHttpClientConnectionManagerMetricsBinder(pool, target, Tags.of("target", target))
+                .bindTo(meterRegistry);
+
+        return HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(poolTimeout))
+                        .setResponseTimeout(Timeout.of(readTimeout))
+                        .build())
+                .setKeepAliveStrategy((response, context) -> TimeValue.of(keepAlive))
+                .evictIdleConnections(TimeValue.of(keepAlive))
+                .evictExpiredConnections()
+                .build();
+    }
+}
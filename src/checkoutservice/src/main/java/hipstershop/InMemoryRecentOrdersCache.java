@@ -0,0 +1,36 @@
+package hipstershop;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.function.UnaryOperator;
+
+/**
+ * Recent-orders cache local to this replica. Other replicas do not see
+ * its updates, so the TTL bounds how stale a user's history can get when
+ * checkout runs with more than one replica.
+ */
+public class InMemoryRecentOrdersCache extends RecentOrdersCache {
+
+    private final Cache<String, RecentOrders> cache;
+
+    public InMemoryRecentOrdersCache(int capacity, long maxUsers, Duration ttl, MeterRegistry meterRegistry) {
+        super(capacity, meterRegistry);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    @Override
+    protected RecentOrders read(String userId) {
+        return cache.getIfPresent(userId);
+    }
+
+    @Override
+    protected void update(String userId, UnaryOperator<RecentOrders> change) {
+        cache.asMap().compute(userId, (key, current) -> change.apply(current));
+    }
+}
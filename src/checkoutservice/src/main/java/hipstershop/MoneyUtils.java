@@ -43,12 +43,12 @@ public final class MoneyUtils {
                     l.getCurrencyCode() + " vs " + r.getCurrencyCode());
         }
 
-        long units = l.getUnits() + r.getUnits();
+        long units = Math.addExact(l.getUnits(), r.getUnits());
         int nanos = l.getNanos() + r.getNanos();
 
-        if ((units == 0 && nanos == 0) || (units > 0 && nanos >= 0) || (units < 0 && nanos <= 0)) {
-            // same sign
-            units += nanos / NANOS_MOD;
+        if (units == 0 || (units > 0 && nanos >= 0) || (units < 0 && nanos <= 0)) {
+            // same sign, or no units to borrow from
+            units = Math.addExact(units, nanos / NANOS_MOD);
             nanos = nanos % NANOS_MOD;
         } else {
             // different sign
@@ -66,6 +66,8 @@ public final class MoneyUtils {
 
     /**
      * MultiplySlow multiplies a Money value by n using repeated addition.
+     * Kept as the reference implementation for multiply; note that it
+     * returns m unchanged for n < 1.
      */
     public static Money multiplySlow(Money m, int n) {
         Money out = m;
@@ -74,4 +76,69 @@ public final class MoneyUtils {
         }
         return out;
     }
+
+    /**
+     * Multiply returns m * n in constant time. For n >= 1 the result equals
+     * multiplySlow; it is always in normalized form (units and nanos share
+     * a sign).
+     * Throws ArithmeticException if the units overflow.
+     */
+    public static Money multiply(Money m, int n) {
+        if (!isValid(m)) {
+            throw new IllegalArgumentException("The specified money value is invalid");
+        }
+        // |nanos| * |n| < 1e9 * 2^31, which fits in a long
+        long nanos = (long) m.getNanos() * n;
+        long units = Math.addExact(Math.multiplyExact(m.getUnits(), (long) n), nanos / NANOS_MOD);
+        return normalized(m.getCurrencyCode(), units, nanos % NANOS_MOD);
+    }
+
+    /**
+     * Negate returns -m.
+     */
+    public static Money negate(Money m) {
+        if (!isValid(m)) {
+            throw new IllegalArgumentException("The specified money value is invalid");
+        }
+        return new Money(m.getCurrencyCode(), Math.negateExact(m.getUnits()), -m.getNanos());
+    }
+
+    /**
+     * Total adds up any number of values of the given currency with a single
+     * allocation for the result. Throws ArithmeticException on overflow.
+     */
+    public static Money total(String currencyCode, Iterable<Money> values) {
+        long units = 0;
+        long nanos = 0;
+        for (Money m : values) {
+            if (!isValid(m)) {
+                throw new IllegalArgumentException("One of the specified money values is invalid");
+            }
+            if (!currencyCode.equals(m.getCurrencyCode())) {
+                throw new IllegalArgumentException("Mismatching currency codes: " +
+                        currencyCode + " vs " + m.getCurrencyCode());
+            }
+            units = Math.addExact(units, m.getUnits());
+            nanos += m.getNanos();
+            // keep the nanos accumulator bounded
+            units = Math.addExact(units, nanos / NANOS_MOD);
+            nanos %= NANOS_MOD;
+        }
+        return normalized(currencyCode, units, nanos);
+    }
+
+    /**
+     * Builds a Money from units and |nanos| < 1e9, borrowing one unit if the
+     * signs disagree.
+     */
+    private static Money normalized(String currencyCode, long units, long nanos) {
+        if (units > 0 && nanos < 0) {
+            units--;
+            nanos += NANOS_MOD;
+        } else if (units < 0 && nanos > 0) {
+            units++;
+            nanos -= NANOS_MOD;
+        }
+        return new Money(currencyCode, units, (int) nanos);
+    }
 }
@@ -0,0 +1,299 @@
+package hipstershop;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind persistence for placed orders.
+ * Orders are queued in memory and written by a background thread with
+ * unordered insertMany batches. Failed writes are retried with exponential
+ * backoff; once retries are exhausted (or the queue is full) orders are
+ * appended to a local JSON-lines journal, which a separate thread replays
+ * into MongoDB when it is reachable again, so a replay against an
+ * unreachable server never holds up the live queue. Replays are idempotent
+ * thanks to the unique orderId index, so duplicate-key errors count as
+ * success.
+ *
+ * Every order is also kept by id from submit until MongoDB acknowledges it,
+ * including while it sits in the journal, so it can be read back before it
+ * is persisted.
+ */
+@Component
+public class OrderWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderWriter.class);
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoCollection<Document> ordersCollection;
+    private final BlockingQueue<Document> queue;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final int maxRetries;
+    private final Path journal;
+    private final Duration replayInterval;
+
+    private final Timer flushTimer;
+    private final DistributionSummary batchSizes;
+    private final Counter spilled;
+
+    // orderId -> order, from submit until MongoDB has acknowledged it
+    private final ConcurrentMap<String, Document> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService replayer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "order-journal-replay");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile boolean running = true;
+    private Thread writer;
+
+    public OrderWriter(MongoClient mongoClient, MeterRegistry meterRegistry,
+                       @Value("${checkout.orders.queue-capacity:10000}") int queueCapacity,
+                       @Value("${checkout.orders.batch-size:100}") int batchSize,
+                       @Value("${checkout.orders.flush-interval:50ms}") Duration flushInterval,
+                       @Value("${checkout.orders.max-retries:5}") int maxRetries,
+                       @Value("${checkout.orders.journal-dir:/tmp/checkout-journal}") String journalDir,
+                       @Value("${checkout.orders.replay-interval:30s}") Duration replayInterval) {
+        this.ordersCollection = mongoClient.getDatabase("checkoutdb").getCollection("orders");
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.maxRetries = maxRetries;
+        this.journal = Path.of(journalDir, "orders.jsonl");
+        this.replayInterval = replayInterval;
+
+        Gauge.builder("checkout.orders.queue.depth", queue, BlockingQueue::size)
+                .description("Orders waiting to be written to MongoDB")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("checkout.orders.flush")
+                .description("Time to write one batch of orders to MongoDB")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("checkout.orders.batch.size")
+                .description("Orders per MongoDB write")
+                .register(meterRegistry);
+        this.spilled = Counter.builder("checkout.orders.spilled")
+                .description("Orders written to the local journal instead of MongoDB")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        writer = new Thread(this::run, "order-writer");
+        writer.start();
+        replayer.scheduleWithFixedDelay(this::replayJournal, 0, replayInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues an order for persistence. Never blocks; if the queue is full
+     * the order goes straight to the journal.
+     */
+    public void submit(Document order) {
+        pending.put(order.getString("orderId"), order);
+        if (!running || !queue.offer(order)) {
+            spill(List.of(order));
+        }
+    }
+
+    /**
+     * Returns an order that is queued, being written or journaled, or null
+     * once MongoDB has it.
+     */
+    public Document findPending(String orderId) {
+        return pending.get(orderId);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        replayer.shutdownNow();
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        // Anything the writer did not get to in time is written (or journaled) here
+        List<Document> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (int from = 0; from < remaining.size(); from += batchSize) {
+            List<Document> failed = tryInsert(remaining.subList(from, Math.min(from + batchSize, remaining.size())));
+            if (!failed.isEmpty()) {
+                spill(failed);
+            }
+        }
+    }
+
+    private void run() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Document first = queue.poll(flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<Document> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Order writer loop failed", e);
+            }
+        }
+    }
+
+    private void write(List<Document> batch) throws InterruptedException {
+        List<Document> pending = batch;
+        long backoff = 100;
+        for (int attempt = 0; attempt <= maxRetries && !pending.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    spill(pending);
+                    throw e;
+                }
+                backoff = Math.min(backoff * 2, 5000);
+            }
+            pending = tryInsert(pending);
+        }
+        if (!pending.isEmpty()) {
+            logger.error("Giving up on {} orders after {} retries, journaling them", pending.size(), maxRetries);
+            spill(pending);
+        }
+    }
+
+    /**
+     * Returns the documents that still need to be written.
+     */
+    private List<Document> tryInsert(List<Document> batch) {
+        long start = System.nanoTime();
+        try {
+            ordersCollection.insertMany(batch, new InsertManyOptions().ordered(false));
+            acknowledge(batch, Set.of());
+            return List.of();
+        } catch (MongoBulkWriteException e) {
+            Set<Integer> failed = new HashSet<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (error.getCode() != DUPLICATE_KEY) {
+                    failed.add(error.getIndex());
+                }
+            }
+            List<Document> retry = new ArrayList<>(failed.size());
+            for (int i : failed) {
+                retry.add(batch.get(i));
+            }
+            acknowledge(batch, failed);
+            if (!retry.isEmpty()) {
+                logger.warn("{} of {} orders failed to save: {}", retry.size(), batch.size(), e.getMessage());
+            }
+            return retry;
+        } catch (Exception e) {
+            logger.warn("Failed to save {} orders to MongoDB: {}", batch.size(), e.getMessage());
+            return batch;
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            batchSizes.record(batch.size());
+        }
+    }
+
+    private void acknowledge(List<Document> batch, Set<Integer> failed) {
+        for (int i = 0; i < batch.size(); i++) {
+            if (!failed.contains(i)) {
+                Document order = batch.get(i);
+                pending.remove(order.getString("orderId"), order);
+            }
+        }
+    }
+
+    private synchronized void spill(List<Document> orders) {
+        try {
+            Files.createDirectories(journal.getParent());
+            try (BufferedWriter out = Files.newBufferedWriter(journal, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC)) {
+                for (Document order : orders) {
+                    out.write(order.toJson());
+                    out.newLine();
+                }
+            }
+            spilled.increment(orders.size());
+        } catch (IOException e) {
+            for (Document order : orders) {
+                logger.error("LOST ORDER {}: could not journal it: {}", order.getString("orderId"), e.getMessage());
+                pending.remove(order.getString("orderId"), order);
+            }
+        }
+    }
+
+    private void replayJournal() {
+        Path replaying = journal.resolveSibling("orders.replaying.jsonl");
+        if (!Files.exists(journal) && !Files.exists(replaying)) {
+            return;
+        }
+
+        List<Document> orders = new ArrayList<>();
+        synchronized (this) {
+            try {
+                if (!Files.exists(replaying)) {
+                    Files.move(journal, replaying, StandardCopyOption.ATOMIC_MOVE);
+                }
+                for (String line : Files.readAllLines(replaying, StandardCharsets.UTF_8)) {
+                    if (!line.isBlank()) {
+                        Document order = Document.parse(line);
+                        // Journals left by an earlier run are readable too until replayed
+                        pending.putIfAbsent(order.getString("orderId"), order);
+                        orders.add(order);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to read order journal: {}", e.getMessage());
+                return;
+            }
+        }
+
+        for (int from = 0; from < orders.size(); from += batchSize) {
+            if (!tryInsert(orders.subList(from, Math.min(from + batchSize, orders.size()))).isEmpty()) {
+                // MongoDB still unhealthy; keep the file and try again later
+                return;
+            }
+        }
+        try {
+            Files.delete(replaying);
+            logger.info("Replayed {} journaled orders into MongoDB", orders.size());
+        } catch (IOException e) {
+            logger.warn("Failed to delete replayed order journal: {}", e.getMessage());
+        }
+    }
+}
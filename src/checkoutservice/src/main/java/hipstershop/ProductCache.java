@@ -0,0 +1,104 @@
+package hipstershop;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import hipstershop.model.Product;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Read-through cache in front of productcatalogservice.
+ * Entries are refreshed in the background once they pass the refresh age and
+ * dropped after the TTL; concurrent misses for the same id share one load.
+ */
+@Component
+public class ProductCache {
+
+    private static final int MAX_BATCH_IDS = 100;
+
+    private final RestTemplate restTemplate;
+    private final String productCatalogServiceAddr;
+    private final AsyncLoadingCache<String, Product> cache;
+
+    public ProductCache(@Qualifier("productcatalog") RestTemplate restTemplate,
+                        ExecutorService checkoutExecutor,
+                        MeterRegistry meterRegistry,
+                        @Value("${productcatalog.service.addr}") String productCatalogServiceAddr,
+                        @Value("${checkout.product-cache.max-size:10000}") long maxSize,
+                        @Value("${checkout.product-cache.ttl:10m}") Duration ttl,
+                        @Value("${checkout.product-cache.refresh-after:1m}") Duration refreshAfter) {
+        this.restTemplate = restTemplate;
+        this.productCatalogServiceAddr = productCatalogServiceAddr;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .refreshAfterWrite(refreshAfter)
+                .executor(checkoutExecutor)
+                .recordStats()
+                .buildAsync(new CatalogLoader());
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "checkout.products");
+    }
+
+    /**
+     * Returns the cached products for the given ids, fetching misses with
+     * one batch call per 100 ids. Unknown ids are absent from the result.
+     */
+    public Map<String, Product> getAll(Collection<String> ids) {
+        try {
+            return cache.getAll(ids).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    private List<Product> fetch(Collection<String> ids) {
+        String url = String.format("http://%s/api/products/batch", productCatalogServiceAddr);
+        List<String> all = new ArrayList<>(ids);
+        List<Product> found = new ArrayList<>(all.size());
+        // The catalog rejects batches larger than this
+        for (int from = 0; from < all.size(); from += MAX_BATCH_IDS) {
+            List<String> chunk = all.subList(from, Math.min(from + MAX_BATCH_IDS, all.size()));
+            Product[] products = restTemplate.postForObject(url, chunk, Product[].class);
+            if (products != null) {
+                found.addAll(List.of(products));
+            }
+        }
+        return found;
+    }
+
+    private class CatalogLoader implements CacheLoader<String, Product> {
+
+        @Override
+        public Product load(String id) {
+            List<Product> products = fetch(List.of(id));
+            return products.isEmpty() ? null : products.get(0);
+        }
+
+        @Override
+        public Map<String, Product> loadAll(Set<? extends String> ids) {
+            Map<String, Product> byId = new HashMap<>();
+            for (Product product : fetch(new ArrayList<>(ids))) {
+                byId.put(product.getId(), product);
+            }
+            return byId;
+        }
+    }
+}
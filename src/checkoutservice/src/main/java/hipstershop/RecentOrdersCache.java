@@ -0,0 +1,126 @@
+package hipstershop;
+
+import hipstershop.model.OrderResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Per-user cache of the most recent orders, newest first.
+ * Filled from MongoDB on a miss and updated in place whenever an order is
+ * placed. An order placed for a user who is not cached creates a partial
+ * entry: it is not served on its own, but is merged into the next fill so
+ * orders still waiting in the write-behind queue are never missing.
+ */
+public abstract class RecentOrdersCache {
+
+    private static final Comparator<OrderResult> NEWEST_FIRST = Comparator
+            .comparing(OrderResult::getCreatedAt, Comparator.nullsLast(Comparator.reverseOrder()))
+            .thenComparing(OrderResult::getOrderId, Comparator.nullsLast(Comparator.reverseOrder()));
+
+    private final int capacity;
+    private final Counter hits;
+    private final Counter misses;
+
+    protected RecentOrdersCache(int capacity, MeterRegistry meterRegistry) {
+        this.capacity = capacity;
+        this.hits = Counter.builder("checkout.orders.recent.requests").tag("result", "hit")
+                .description("Order history reads served by the recent-orders cache")
+                .register(meterRegistry);
+        this.misses = Counter.builder("checkout.orders.recent.requests").tag("result", "miss")
+                .description("Order history reads served by the recent-orders cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Number of newest orders kept per user.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the user's newest orders, or null if they are not cached.
+     */
+    public List<OrderResult> get(String userId) {
+        RecentOrders entry = read(userId);
+        if (entry != null && entry.complete()) {
+            hits.increment();
+            return entry.orders();
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Returns one of the user's cached orders, complete entry or not, or
+     * null. Does not count as a history read.
+     */
+    public OrderResult find(String userId, String orderId) {
+        RecentOrders entry = read(userId);
+        if (entry == null) {
+            return null;
+        }
+        for (OrderResult o : entry.orders()) {
+            if (orderId.equals(o.getOrderId())) {
+                return o;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores the newest orders as loaded from MongoDB and returns what was
+     * stored, which also includes orders placed but not yet persisted.
+     */
+    public List<OrderResult> fill(String userId, List<OrderResult> newest) {
+        List<List<OrderResult>> stored = new ArrayList<>(1);
+        update(userId, current -> {
+            RecentOrders merged = merge(current, newest, true);
+            stored.clear();
+            stored.add(merged.orders());
+            return merged;
+        });
+        return stored.isEmpty() ? newest : stored.get(0);
+    }
+
+    public void recordPlaced(OrderResult order) {
+        update(order.getUserId(), current -> merge(current, List.of(order), current != null && current.complete()));
+    }
+
+    protected abstract RecentOrders read(String userId);
+
+    /**
+     * Atomically replaces the user's entry with change(current entry or null).
+     */
+    protected abstract void update(String userId, UnaryOperator<RecentOrders> change);
+
+    private RecentOrders merge(RecentOrders current, List<OrderResult> orders, boolean complete) {
+        Map<String, OrderResult> byId = new LinkedHashMap<>();
+        if (current != null) {
+            for (OrderResult o : current.orders()) {
+                byId.put(o.getOrderId(), o);
+            }
+        }
+        for (OrderResult o : orders) {
+            byId.put(o.getOrderId(), o);
+        }
+        List<OrderResult> merged = new ArrayList<>(byId.values());
+        merged.sort(NEWEST_FIRST);
+        if (merged.size() > capacity) {
+            merged = new ArrayList<>(merged.subList(0, capacity));
+        }
+        return new RecentOrders(complete, merged);
+    }
+
+    /**
+     * complete is true once the list holds the newest orders from MongoDB.
+     */
+    public record RecentOrders(boolean complete, List<OrderResult> orders) {}
+}
@@ -0,0 +1,33 @@
+package hipstershop;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class RecentOrdersConfig {
+
+    @Value("${checkout.recent-orders.redis.addr:}")
+    private String redisAddr;
+
+    @Value("${checkout.recent-orders.size:50}")
+    private int size;
+
+    @Value("${checkout.recent-orders.max-users:10000}")
+    private long maxUsers;
+
+    @Value("${checkout.recent-orders.ttl:10m}")
+    private Duration ttl;
+
+    @Bean
+    public RecentOrdersCache recentOrdersCache(ObjectMapper mapper, MeterRegistry meterRegistry) {
+        if (redisAddr != null && !redisAddr.isEmpty()) {
+            return new RedisRecentOrdersCache(redisAddr, size, ttl, mapper, meterRegistry);
+        }
+        return new InMemoryRecentOrdersCache(size, maxUsers, ttl, meterRegistry);
+    }
+}
@@ -0,0 +1,95 @@
+package hipstershop;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Transaction;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Recent-orders cache shared by all checkout replicas through Redis.
+ * Each user's entry is one JSON value updated with WATCH/MULTI, so
+ * concurrent updates from different replicas merge instead of overwriting.
+ * Redis errors degrade to cache misses; an update that cannot be applied
+ * deletes the entry rather than leave it stale.
+ */
+public class RedisRecentOrdersCache extends RecentOrdersCache implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisRecentOrdersCache.class);
+    private static final String KEY_PREFIX = "checkout:recent-orders:";
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final JedisPool pool;
+    private final ObjectMapper mapper;
+    private final long ttlSeconds;
+
+    public RedisRecentOrdersCache(String redisAddr, int capacity, Duration ttl,
+                                  ObjectMapper mapper, MeterRegistry meterRegistry) {
+        super(capacity, meterRegistry);
+        String host = redisAddr;
+        int port = 6379;
+        if (redisAddr.contains(":")) {
+            String[] parts = redisAddr.split(":");
+            host = parts[0];
+            port = Integer.parseInt(parts[1]);
+        }
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(20);
+        this.pool = new JedisPool(config, host, port);
+        this.mapper = mapper;
+        this.ttlSeconds = ttl.toSeconds();
+        logger.info("Recent-orders cache backed by Redis at {}:{}", host, port);
+    }
+
+    @Override
+    protected RecentOrders read(String userId) {
+        try (Jedis jedis = pool.getResource()) {
+            return decode(jedis.get(KEY_PREFIX + userId));
+        } catch (Exception e) {
+            logger.warn("Recent-orders cache read failed for {}: {}", userId, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    protected void update(String userId, UnaryOperator<RecentOrders> change) {
+        String key = KEY_PREFIX + userId;
+        try (Jedis jedis = pool.getResource()) {
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                jedis.watch(key);
+                String value = mapper.writeValueAsString(change.apply(decode(jedis.get(key))));
+                Transaction tx = jedis.multi();
+                tx.setex(key, ttlSeconds, value);
+                List<Object> result = tx.exec();
+                if (result != null && !result.isEmpty()) {
+                    return;
+                }
+            }
+            logger.warn("Recent-orders cache update for {} kept conflicting, dropping entry", userId);
+            jedis.del(key);
+        } catch (Exception e) {
+            logger.warn("Recent-orders cache update failed for {}: {}", userId, e.getMessage());
+            try (Jedis jedis = pool.getResource()) {
+                jedis.del(key);
+            } catch (Exception ignored) {
+                // Redis is unreachable; the entry expires with its TTL
+            }
+        }
+    }
+
+    private RecentOrders decode(String value) throws java.io.IOException {
+        return value != null ? mapper.readValue(value, RecentOrders.class) : null;
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
@@ -0,0 +1,21 @@
+package hipstershop.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class OrderPage {
+    private List<OrderSummary> orders = new ArrayList<>();
+    private String nextCursor;
+
+    public OrderPage() {}
+
+    public OrderPage(List<OrderSummary> orders, String nextCursor) {
+        this.orders = orders;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<OrderSummary> getOrders() { return orders; }
+    public void setOrders(List<OrderSummary> orders) { this.orders = orders; }
+    public String getNextCursor() { return nextCursor; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+}
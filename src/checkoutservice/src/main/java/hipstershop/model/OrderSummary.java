@@ -0,0 +1,22 @@
+package hipstershop.model;
+
+public class OrderSummary {
+    private String orderId;
+    private String shippingTrackingId;
+    private Money totalCost;
+    private String userCurrency;
+    private String createdAt;
+
+    public OrderSummary() {}
+
+    public String getOrderId() { return orderId; }
+    public void setOrderId(String orderId) { this.orderId = orderId; }
+    public String getShippingTrackingId() { return shippingTrackingId; }
+    public void setShippingTrackingId(String shippingTrackingId) { this.shippingTrackingId = shippingTrackingId; }
+    public Money getTotalCost() { return totalCost; }
+    public void setTotalCost(Money totalCost) { this.totalCost = totalCost; }
+    public String getUserCurrency() { return userCurrency; }
+    public void setUserCurrency(String userCurrency) { this.userCurrency = userCurrency; }
+    public String getCreatedAt() { return createdAt; }
+    public void setCreatedAt(String createdAt) { this.createdAt = createdAt; }
+}
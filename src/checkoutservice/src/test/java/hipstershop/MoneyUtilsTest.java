@@ -0,0 +1,133 @@
+package hipstershop;
+
+import hipstershop.model.Money;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MoneyUtilsTest {
+
+    private static final String USD = "USD";
+
+    @Test
+    void multiplyMatchesMultiplySlow() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            Money m = randomMoney(random);
+            int n = 1 + random.nextInt(50);
+            Money fast = MoneyUtils.multiply(m, n);
+            Money slow = MoneyUtils.multiplySlow(m, n);
+            assertMoney(slow.getUnits(), slow.getNanos(), fast);
+            assertTrue(MoneyUtils.isValid(fast), () -> "not normalized: " + fast.getUnits() + "." + fast.getNanos());
+        }
+    }
+
+    @Test
+    void multiplyCarriesNanosIntoUnits() {
+        assertMoney(2, 999_999_997, MoneyUtils.multiply(money(0, 999_999_999), 3));
+        assertMoney(-2, -999_999_997, MoneyUtils.multiply(money(0, -999_999_999), 3));
+        assertMoney(3, 0, MoneyUtils.multiply(money(1, 500_000_000), 2));
+    }
+
+    @Test
+    void multiplyByNegativeOrZeroFactor() {
+        assertMoney(-7, -500_000_000, MoneyUtils.multiply(money(2, 500_000_000), -3));
+        assertMoney(7, 500_000_000, MoneyUtils.multiply(money(-2, -500_000_000), -3));
+        assertMoney(0, 0, MoneyUtils.multiply(money(2, 500_000_000), 0));
+    }
+
+    @Test
+    void multiplyThrowsOnOverflow() {
+        assertThrows(ArithmeticException.class, () -> MoneyUtils.multiply(money(Long.MAX_VALUE / 2 + 1, 0), 2));
+        assertThrows(ArithmeticException.class, () -> MoneyUtils.multiply(money(Long.MAX_VALUE, 999_999_999), 1 << 30));
+    }
+
+    @Test
+    void sumCarriesNanosIntoUnits() {
+        assertMoney(4, 300_000_000, MoneyUtils.sum(money(1, 600_000_000), money(2, 700_000_000)));
+        assertMoney(-4, -300_000_000, MoneyUtils.sum(money(-1, -600_000_000), money(-2, -700_000_000)));
+        assertMoney(1, 0, MoneyUtils.sum(money(0, 500_000_000), money(0, 500_000_000)));
+    }
+
+    @Test
+    void sumBorrowsWhenSignsDiffer() {
+        assertMoney(1, 200_000_000, MoneyUtils.sum(money(5, 100_000_000), money(-3, -900_000_000)));
+        assertMoney(-1, -200_000_000, MoneyUtils.sum(money(-5, -100_000_000), money(3, 900_000_000)));
+        assertMoney(0, 0, MoneyUtils.sum(money(1, 500_000_000), money(-1, -500_000_000)));
+    }
+
+    @Test
+    void sumOfNanosOnlyStaysNormalized() {
+        assertMoney(0, 600_000_000, MoneyUtils.sum(money(0, 500_000_000), money(0, 100_000_000)));
+        assertMoney(0, -600_000_000, MoneyUtils.sum(money(0, -500_000_000), money(0, -100_000_000)));
+        assertMoney(0, -200_000_000, MoneyUtils.sum(money(0, 500_000_000), money(0, -700_000_000)));
+    }
+
+    @Test
+    void sumThrowsOnOverflow() {
+        assertThrows(ArithmeticException.class, () -> MoneyUtils.sum(money(Long.MAX_VALUE, 0), money(1, 0)));
+        assertThrows(ArithmeticException.class,
+                () -> MoneyUtils.sum(money(Long.MAX_VALUE, 500_000_000), money(0, 500_000_000)));
+        assertThrows(ArithmeticException.class, () -> MoneyUtils.sum(money(Long.MIN_VALUE, 0), money(-1, 0)));
+    }
+
+    @Test
+    void sumRejectsInvalidOrMismatchedValues() {
+        assertThrows(IllegalArgumentException.class, () -> MoneyUtils.sum(money(1, -1), money(1, 0)));
+        assertThrows(IllegalArgumentException.class, () -> MoneyUtils.sum(money(0, 1_000_000_000), money(1, 0)));
+        assertThrows(IllegalArgumentException.class, () -> MoneyUtils.sum(money(1, 0), new Money("EUR", 1, 0)));
+    }
+
+    @Test
+    void totalMatchesRepeatedSum() {
+        Random random = new Random(7);
+        for (int i = 0; i < 1_000; i++) {
+            List<Money> values = new ArrayList<>();
+            Money expected = money(0, 0);
+            for (int j = random.nextInt(20); j > 0; j--) {
+                Money m = randomMoney(random);
+                values.add(m);
+                expected = MoneyUtils.sum(expected, m);
+            }
+            assertMoney(expected.getUnits(), expected.getNanos(), MoneyUtils.total(USD, values));
+        }
+    }
+
+    @Test
+    void totalThrowsOnOverflow() {
+        assertThrows(ArithmeticException.class,
+                () -> MoneyUtils.total(USD, List.of(money(Long.MAX_VALUE, 0), money(1, 0))));
+        assertThrows(ArithmeticException.class,
+                () -> MoneyUtils.total(USD, List.of(money(Long.MAX_VALUE, 999_999_999), money(0, 1))));
+    }
+
+    @Test
+    void totalOfNothingIsZero() {
+        assertMoney(0, 0, MoneyUtils.total(USD, List.of()));
+    }
+
+    private static Money randomMoney(Random random) {
+        long units = random.nextInt(2001) - 1000;
+        int nanos = random.nextInt(1_000_000_000);
+        if (units < 0 || (units == 0 && random.nextBoolean())) {
+            nanos = -nanos;
+        }
+        return money(units, nanos);
+    }
+
+    private static Money money(long units, int nanos) {
+        return new Money(USD, units, nanos);
+    }
+
+    private static void assertMoney(long units, int nanos, Money actual) {
+        assertEquals(USD, actual.getCurrencyCode());
+        assertEquals(units, actual.getUnits(), "units");
+        assertEquals(nanos, actual.getNanos(), "nanos");
+    }
+}
@@ -15,7 +15,12 @@
 package main
 
 import (
+	"context"
+	"encoding/base64"
+	"encoding/json"
 	"net/http"
+	"strings"
+	"time"
 
 	"github.com/sirupsen/logrus"
 )
@@ -30,6 +35,9 @@ func (fe *frontendServer) loginPageHandler(w http.ResponseWriter, r *http.Reques
 	if registered == "true" {
 		data["success_message"] = "Registration successful! Please log in."
 	}
+	if r.URL.Query().Get("expired") == "true" {
+		data["login_error"] = "Your session has expired. Please log in again."
+	}
 	if err := templates.ExecuteTemplate(w, "login", injectCommonTemplateData(r, data)); err != nil {
 		log := r.Context().Value(ctxKeyLog{}).(logrus.FieldLogger)
 		log.Error(err)
@@ -58,26 +66,28 @@ func (fe *frontendServer) loginSubmitHandler(w http.ResponseWriter, r *http.Requ
 	http.SetCookie(w, &http.Cookie{
 		Name:   cookieToken,
 		Value:  result.Token,
-		MaxAge: cookieMaxAge,
+		MaxAge: cookieAgeUntil(result.ExpiresAt),
 		Path:   "/",
 	})
 	// Set username cookie for display purposes
 	http.SetCookie(w, &http.Cookie{
 		Name:   cookieUsername,
 		Value:  result.Username,
-		MaxAge: cookieMaxAge,
+		MaxAge: cookieAgeUntil(result.ExpiresAt),
 		Path:   "/",
 	})
 
 	log.WithField("username", result.Username).Info("user logged in successfully")
 
-	// Migrate cart from anonymous session to logged-in user
+	// Migrate cart from anonymous session to logged-in user. The anonymous
+	// cart is read with the guest token, the user cart written with the new one.
 	anonSessionID := sessionID(r)
 	if anonSessionID != "" && anonSessionID != result.Username {
+		userCtx := context.WithValue(r.Context(), ctxKeyAuthToken{}, result.Token)
 		anonCart, err := fe.getCart(r.Context(), anonSessionID)
 		if err == nil && len(anonCart) > 0 {
 			for _, item := range anonCart {
-				if insertErr := fe.insertCart(r.Context(), result.Username, item.ProductId, item.Quantity); insertErr != nil {
+				if insertErr := fe.insertCart(userCtx, result.Username, item.ProductId, item.Quantity); insertErr != nil {
 					log.WithField("error", insertErr).Warn("failed to migrate cart item")
 				}
 			}
@@ -183,6 +193,57 @@ func getAuthUsername(r *http.Request) string {
 	return c.Value
 }
 
+// tokenClaims is the part of an authservice token the frontend looks at. The
+// signature is checked by the gateway and authservice, not here.
+type tokenClaims struct {
+	Exp      int64  `json:"exp"`
+	Username string `json:"username"`
+}
+
+func parseTokenClaims(token string) (*tokenClaims, bool) {
+	parts := strings.Split(token, ".")
+	if len(parts) != 3 {
+		return nil, false
+	}
+	payload, err := base64.RawURLEncoding.DecodeString(parts[1])
+	if err != nil {
+		return nil, false
+	}
+	var claims tokenClaims
+	if err := json.Unmarshal(payload, &claims); err != nil {
+		return nil, false
+	}
+	return &claims, true
+}
+
+func tokenUnexpired(token string) bool {
+	claims, ok := parseTokenClaims(token)
+	return ok && claims.Exp > time.Now().Unix()
+}
+
+// loginTokenUsable reports whether a login token can still be sent. Behind
+// the gateway it must also carry the username claim carts are checked against.
+func (fe *frontendServer) loginTokenUsable(token string) bool {
+	claims, ok := parseTokenClaims(token)
+	if !ok || claims.Exp <= time.Now().Unix() {
+		return false
+	}
+	return fe.apiGatewayAddr == "" || claims.Username != ""
+}
+
+// cookieAgeUntil returns a cookie MaxAge that ends when a token issued with
+// the given expires_at does.
+func cookieAgeUntil(expiresAt int64) int {
+	age := expiresAt - time.Now().Unix()
+	if age <= 0 {
+		return -1
+	}
+	if age > cookieMaxAge {
+		return cookieMaxAge
+	}
+	return int(age)
+}
+
 func isLoggedIn(r *http.Request) bool {
 	return getAuthToken(r) != ""
 }
@@ -18,6 +18,7 @@ import (
 	"bytes"
 	"encoding/json"
 	"fmt"
+	"net"
 	"net/http"
 	"time"
 )
@@ -32,9 +33,16 @@ type AuthLoginRequest struct {
 type AuthLoginResponse struct {
 	Token     string `json:"token"`
 	ExpiresAt int64  `json:"expires_at"`
+	UserID    string `json:"user_id"`
 	Username  string `json:"username"`
 }
 
+type AuthGuestResponse struct {
+	Token     string `json:"token"`
+	ExpiresAt int64  `json:"expires_at"`
+	UserID    string `json:"user_id"`
+}
+
 type AuthRegisterRequest struct {
 	Email     string `json:"email"`
 	Username  string `json:"username"`
@@ -89,6 +97,35 @@ func (fe *frontendServer) authLogin(email, password string) (*AuthLoginResponse,
 	return &result, nil
 }
 
+// authGuest calls authservice POST /api/guest. The visitor's address is
+// forwarded so the gateway rate-limits guest tokens per visitor rather than
+// per frontend.
+func (fe *frontendServer) authGuest(clientAddr string) (*AuthGuestResponse, error) {
+	req, err := http.NewRequest(http.MethodPost, fmt.Sprintf("http://%s/api/guest", fe.authSvcAddr), nil)
+	if err != nil {
+		return nil, err
+	}
+	req.Header.Set("Content-Type", "application/json")
+	if host, _, serr := net.SplitHostPort(clientAddr); serr == nil {
+		req.Header.Set("X-Forwarded-For", host)
+	}
+	resp, err := authHTTPClient.Do(req)
+	if err != nil {
+		return nil, fmt.Errorf("auth service unavailable: %w", err)
+	}
+	defer resp.Body.Close()
+
+	if resp.StatusCode != http.StatusOK {
+		return nil, fmt.Errorf("guest token failed (status %d)", resp.StatusCode)
+	}
+
+	var result AuthGuestResponse
+	if err := json.NewDecoder(resp.Body).Decode(&result); err != nil {
+		return nil, fmt.Errorf("failed to decode guest response: %w", err)
+	}
+	return &result, nil
+}
+
 // authRegister calls authservice POST /api/register
 func (fe *frontendServer) authRegister(req AuthRegisterRequest) error {
 	body, _ := json.Marshal(req)
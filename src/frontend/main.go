@@ -38,6 +38,8 @@ const (
 	cookiePrefix    = "shop_"
 	cookieSessionID = cookiePrefix + "session-id"
 	cookieCurrency  = cookiePrefix + "currency"
+
+	cookieGuestToken = cookiePrefix + "guest-token"
 )
 
 var (
@@ -45,6 +47,8 @@ var (
 )
 
 type ctxKeySessionID struct{}
+type ctxKeyAuthToken struct{}
+type ctxKeyAuthState struct{}
 
 type frontendServer struct {
 	productCatalogSvcAddr string
@@ -72,7 +76,10 @@ func main() {
 	log.Out = os.Stdout
 
 	svc := new(frontendServer)
-	svc.httpClient = &http.Client{Timeout: 10 * time.Second}
+	svc.httpClient = &http.Client{
+		Timeout:   10 * time.Second,
+		Transport: bearerTransport{next: http.DefaultTransport},
+	}
 
 	otel.SetTextMapPropagator(
 		propagation.NewCompositeTextMapPropagator(
@@ -141,7 +148,7 @@ func main() {
 
 	var handler http.Handler = r
 	handler = &logHandler{log: log, next: handler}     // add logging
-	handler = ensureSessionID(handler)                 // add session ID
+	handler = svc.ensureSessionID(handler)             // add session ID and auth token
 	handler = otelhttp.NewHandler(handler, "frontend") // add OTel tracing
 
 	log.Infof("starting server on %s:%s", addr, srvPort)
@@ -17,8 +17,10 @@ package main
 import (
 	"context"
 	"net/http"
-	"time"
 	"os"
+	"strings"
+	"sync/atomic"
+	"time"
 
 	"github.com/google/uuid"
 	"github.com/sirupsen/logrus"
@@ -82,15 +84,52 @@ func (lh *logHandler) ServeHTTP(w http.ResponseWriter, r *http.Request) {
 	lh.next.ServeHTTP(rr, r)
 }
 
-func ensureSessionID(next http.Handler) http.HandlerFunc {
+// ensureSessionID assigns every visitor a session ID. Behind the API gateway
+// cart and checkout calls need a token, so an anonymous visitor is issued a
+// guest token and the guest id in it becomes the session ID; an expired guest
+// token is replaced the same way. Health checks, robots.txt and static files
+// never need one, so they are served without asking the auth service. The token the backend calls carry (login
+// token, else guest token) is put in the context. A login token that has
+// expired, or that predates the username claim the gateway checks carts
+// against, is cleared and the visitor is sent to log in again.
+func (fe *frontendServer) ensureSessionID(next http.Handler) http.HandlerFunc {
 	return func(w http.ResponseWriter, r *http.Request) {
-		var sessionID string
+		var sessionID, guestToken string
 		c, err := r.Cookie(cookieSessionID)
-		if err == http.ErrNoCookie {
-			if os.Getenv("ENABLE_SINGLE_SHARED_SESSION") == "true" {
-				// Hard coded user id, shared across sessions
-				sessionID = "12345678-1234-1234-1234-123456789123"
-			} else {
+		if err != nil && err != http.ErrNoCookie {
+			return
+		}
+		if token := getAuthToken(r); token != "" && !fe.loginTokenUsable(token) {
+			clearAuthCookies(w)
+			if !allowedWithoutLogin(r.URL.Path) {
+				w.Header().Set("Location", baseUrl+"/login?expired=true")
+				w.WriteHeader(http.StatusSeeOther)
+				return
+			}
+			r = withoutCookies(r, cookieToken, cookieUsername)
+		}
+		if g, gerr := r.Cookie(cookieGuestToken); gerr == nil && tokenUnexpired(g.Value) {
+			guestToken = g.Value
+		}
+		if err == nil && (guestToken != "" || fe.apiGatewayAddr == "") {
+			sessionID = c.Value
+		} else if os.Getenv("ENABLE_SINGLE_SHARED_SESSION") == "true" {
+			// Hard coded user id, shared across sessions
+			sessionID = "12345678-1234-1234-1234-123456789123"
+		} else {
+			if fe.apiGatewayAddr != "" && needsGuestToken(r.URL.Path) {
+				if guest, gerr := fe.authGuest(r.RemoteAddr); gerr == nil {
+					sessionID = guest.UserID
+					guestToken = guest.Token
+					http.SetCookie(w, &http.Cookie{
+						Name:   cookieGuestToken,
+						Value:  guestToken,
+						MaxAge: cookieAgeUntil(guest.ExpiresAt),
+						Path:   "/",
+					})
+				}
+			}
+			if sessionID == "" {
 				u, _ := uuid.NewRandom()
 				sessionID = u.String()
 			}
@@ -99,13 +138,113 @@ func ensureSessionID(next http.Handler) http.HandlerFunc {
 				Value:  sessionID,
 				MaxAge: cookieMaxAge,
 			})
-		} else if err != nil {
-			return
-		} else {
-			sessionID = c.Value
 		}
 		ctx := context.WithValue(r.Context(), ctxKeySessionID{}, sessionID)
+		state := &authState{}
+		if token := getAuthToken(r); token != "" {
+			ctx = context.WithValue(ctx, ctxKeyAuthToken{}, token)
+			state.login = true
+		} else if guestToken != "" {
+			ctx = context.WithValue(ctx, ctxKeyAuthToken{}, guestToken)
+		}
+		ctx = context.WithValue(ctx, ctxKeyAuthState{}, state)
 		r = r.WithContext(ctx)
-		next.ServeHTTP(w, r)
+		next.ServeHTTP(&authCookieWriter{ResponseWriter: w, state: state}, r)
+	}
+}
+
+// allowedWithoutLogin reports whether a request whose login token was just
+// cleared can go on as a guest rather than being sent to the login page.
+func allowedWithoutLogin(path string) bool {
+	switch strings.TrimPrefix(path, baseUrl) {
+	case "/login", "/register", "/logout", "/auth/logout", "/_healthz", "/robots.txt":
+		return true
+	}
+	return strings.HasPrefix(path, baseUrl+"/static/")
+}
+
+// needsGuestToken reports whether a request for path may call the backend
+// services and so should be issued a guest token.
+func needsGuestToken(path string) bool {
+	switch strings.TrimPrefix(path, baseUrl) {
+	case "/_healthz", "/robots.txt":
+		return false
+	}
+	return !strings.HasPrefix(path, baseUrl+"/static/")
+}
+
+// withoutCookies returns a copy of r without the named cookies.
+func withoutCookies(r *http.Request, names ...string) *http.Request {
+	cookies := r.Cookies()
+	r = r.Clone(r.Context())
+	r.Header.Del("Cookie")
+	for _, c := range cookies {
+		keep := true
+		for _, name := range names {
+			if c.Name == name {
+				keep = false
+			}
+		}
+		if keep {
+			r.AddCookie(c)
+		}
+	}
+	return r
+}
+
+// authState records whether the gateway rejected this request's token.
+type authState struct {
+	login    bool
+	rejected atomic.Bool
+}
+
+// authCookieWriter clears the cookie of a token the gateway answered 401 to,
+// just before the response headers go out, so the next request logs in
+// again or gets a fresh guest token instead of failing the same way.
+type authCookieWriter struct {
+	http.ResponseWriter
+	state       *authState
+	wroteHeader bool
+}
+
+func (w *authCookieWriter) WriteHeader(statusCode int) {
+	if !w.wroteHeader {
+		w.wroteHeader = true
+		if w.state.rejected.Load() {
+			if w.state.login {
+				clearAuthCookies(w.ResponseWriter)
+			} else {
+				http.SetCookie(w.ResponseWriter, &http.Cookie{Name: cookieGuestToken, Value: "", MaxAge: -1, Path: "/"})
+			}
+		}
+	}
+	w.ResponseWriter.WriteHeader(statusCode)
+}
+
+func (w *authCookieWriter) Write(p []byte) (int, error) {
+	if !w.wroteHeader {
+		w.WriteHeader(http.StatusOK)
+	}
+	return w.ResponseWriter.Write(p)
+}
+
+// bearerTransport adds the context's auth token to outgoing backend calls.
+type bearerTransport struct {
+	next http.RoundTripper
+}
+
+func (t bearerTransport) RoundTrip(req *http.Request) (*http.Response, error) {
+	token, _ := req.Context().Value(ctxKeyAuthToken{}).(string)
+	if token == "" || req.Header.Get("Authorization") != "" {
+		return t.next.RoundTrip(req)
+	}
+	req = req.Clone(req.Context())
+	req.Header.Set("Authorization", "Bearer "+token)
+	resp, err := t.next.RoundTrip(req)
+	if err == nil && resp.StatusCode == http.StatusUnauthorized {
+		if state, ok := req.Context().Value(ctxKeyAuthState{}).(*authState); ok {
+			state.rejected.Store(true)
+		}
 	}
+	return resp, err
 }
@@ -0,0 +1,71 @@
+package hipstershop;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.YearMonth;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old replace/regex/parseInt card checks with the single-pass
+ * CardValidator (which additionally checks Luhn). Run with -prof gc to see
+ * allocations per validation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CardValidatorBenchmark {
+
+    @Param({"4432-8015-6152-0454", "2223 0031 2200 3222"})
+    private String number;
+
+    private CardValidator validator;
+
+    @Setup
+    public void setup() {
+        validator = new CardValidator("visa:4;mastercard:51-55,2221-2720;amex:34,37;discover:6011,65,644-649",
+                Set.of("visa", "mastercard"));
+    }
+
+    @Benchmark
+    public boolean legacy() {
+        String cardNumber = number.replace("-", "").replace(" ", "");
+        if (cardNumber.isEmpty() || !cardNumber.matches("\\d+")) {
+            return false;
+        }
+        String cardType = legacyCardType(cardNumber);
+        if (!cardType.equals("visa") && !cardType.equals("mastercard")) {
+            return false;
+        }
+        return !YearMonth.now().isAfter(YearMonth.of(2030, 1));
+    }
+
+    @Benchmark
+    public boolean singlePass() {
+        return CardValidator.status(validator.validate(number, 1, 2030)) == CardValidator.OK;
+    }
+
+    private static String legacyCardType(String number) {
+        if (number.startsWith("4")) {
+            return "visa";
+        } else if (number.length() >= 2) {
+            int prefix = Integer.parseInt(number.substring(0, 2));
+            if (prefix >= 51 && prefix <= 55) {
+                return "mastercard";
+            }
+            if (number.length() >= 4) {
+                int prefix4 = Integer.parseInt(number.substring(0, 4));
+                if (prefix4 >= 2221 && prefix4 <= 2720) {
+                    return "mastercard";
+                }
+            }
+            if (number.startsWith("34") || number.startsWith("37")) {
+                return "amex";
+            }
+            if (number.startsWith("6011") || number.startsWith("65")) {
+                return "discover";
+            }
+        }
+        return "unknown";
+    }
+}
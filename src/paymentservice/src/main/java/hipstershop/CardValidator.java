@@ -0,0 +1,224 @@
+package hipstershop;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Validates card numbers in a single pass over the characters, without
+ * regexes or substrings. The pass skips spaces and dashes, checks Luhn,
+ * and collects the leading digits for the brand lookup and the last four
+ * digits for the ledger. Brand ranges come from configuration, e.g.
+ * "visa:4;mastercard:51-55,2221-2720", and are compiled into sorted range
+ * tables per prefix length; the longest matching prefix wins.
+ *
+ * The result is packed into a long (see {@link #status}, {@link #brand} and
+ * {@link #lastFour}) so validation itself allocates nothing.
+ */
+public final class CardValidator {
+
+    public static final int OK = 0;
+    public static final int INVALID_NUMBER = 1;
+    public static final int LUHN_FAILED = 2;
+    public static final int UNKNOWN_BRAND = 3;
+    public static final int UNSUPPORTED_BRAND = 4;
+    public static final int INVALID_EXPIRY = 5;
+    public static final int EXPIRED = 6;
+
+    private static final int MAX_PREFIX_DIGITS = 6;
+    private static final int MIN_DIGITS = 12;
+    private static final int MAX_DIGITS = 19;
+    private static final int[] POW10 = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+
+    // How customers know the brands configured under these names
+    private static final Map<String, String> DISPLAY_NAMES = Map.of(
+            "visa", "VISA",
+            "mastercard", "MasterCard",
+            "amex", "American Express",
+            "discover", "Discover");
+
+    private final String[] brands;
+    private final boolean[] accepted;
+    private final List<String> acceptedNames;
+    // Indexed by prefix length: sorted, non-overlapping [low, high] ranges and their brand
+    private final int[][] lows = new int[MAX_PREFIX_DIGITS + 1][];
+    private final int[][] highs = new int[MAX_PREFIX_DIGITS + 1][];
+    private final int[][] brandOf = new int[MAX_PREFIX_DIGITS + 1][];
+
+    private volatile int currentMonth;
+    private volatile long currentMonthValidUntil;
+
+    public CardValidator(String brandRanges, Set<String> acceptedBrands) {
+        List<String> names = new ArrayList<>();
+        List<List<int[]>> ranges = new ArrayList<>();
+        for (int i = 0; i <= MAX_PREFIX_DIGITS; i++) {
+            ranges.add(new ArrayList<>());
+        }
+        for (String entry : brandRanges.split(";")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int colon = entry.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Brand range entry needs 'brand:ranges': " + entry);
+            }
+            String name = entry.substring(0, colon).trim();
+            int brand = names.size();
+            names.add(name);
+            for (String range : entry.substring(colon + 1).split(",")) {
+                String[] bounds = range.trim().split("-");
+                String low = bounds[0].trim();
+                String high = bounds.length > 1 ? bounds[1].trim() : low;
+                if (low.length() != high.length() || low.isEmpty() || low.length() > MAX_PREFIX_DIGITS) {
+                    throw new IllegalArgumentException("Bad range for " + name + ": " + range);
+                }
+                ranges.get(low.length()).add(new int[]{Integer.parseInt(low), Integer.parseInt(high), brand});
+            }
+        }
+        for (int len = 1; len <= MAX_PREFIX_DIGITS; len++) {
+            List<int[]> r = ranges.get(len);
+            r.sort(Comparator.comparingInt(a -> a[0]));
+            lows[len] = new int[r.size()];
+            highs[len] = new int[r.size()];
+            brandOf[len] = new int[r.size()];
+            for (int i = 0; i < r.size(); i++) {
+                if (i > 0 && r.get(i)[0] <= r.get(i - 1)[1]) {
+                    throw new IllegalArgumentException("Overlapping " + len + "-digit brand ranges");
+                }
+                lows[len][i] = r.get(i)[0];
+                highs[len][i] = r.get(i)[1];
+                brandOf[len][i] = r.get(i)[2];
+            }
+        }
+        this.brands = names.toArray(new String[0]);
+        this.accepted = new boolean[brands.length];
+        List<String> acceptedDisplayNames = new ArrayList<>();
+        for (int i = 0; i < brands.length; i++) {
+            accepted[i] = acceptedBrands.contains(brands[i]);
+            if (accepted[i]) {
+                acceptedDisplayNames.add(DISPLAY_NAMES.getOrDefault(brands[i], brands[i]));
+            }
+        }
+        this.acceptedNames = List.copyOf(acceptedDisplayNames);
+    }
+
+    /**
+     * Display names of the accepted brands ("VISA", "MasterCard"), in the
+     * order the brand ranges are configured.
+     */
+    public List<String> acceptedBrandNames() {
+        return acceptedNames;
+    }
+
+    /**
+     * Validates a card number and expiry. Check the outcome with
+     * {@link #status}; brand and last four digits are available whenever
+     * the number itself was readable.
+     */
+    public long validate(String number, int expMonth, int expYear) {
+        if (number == null) {
+            return pack(INVALID_NUMBER, -1, 0);
+        }
+        int digits = 0;
+        int prefix = 0;
+        int lastFour = 0;
+        // Luhn doubles every second digit from the right; the length is only
+        // known at the end, so keep the sum for both parities
+        int sumEven = 0;
+        int sumOdd = 0;
+        for (int i = 0, n = number.length(); i < n; i++) {
+            char c = number.charAt(i);
+            if (c == ' ' || c == '-') {
+                continue;
+            }
+            int d = c - '0';
+            if (d < 0 || d > 9 || ++digits > MAX_DIGITS) {
+                return pack(INVALID_NUMBER, -1, 0);
+            }
+            int doubled = d < 5 ? d * 2 : d * 2 - 9;
+            if ((digits & 1) == 0) {
+                sumEven += doubled;
+                sumOdd += d;
+            } else {
+                sumEven += d;
+                sumOdd += doubled;
+            }
+            if (digits <= MAX_PREFIX_DIGITS) {
+                prefix = prefix * 10 + d;
+            }
+            lastFour = (lastFour * 10 + d) % 10_000;
+        }
+        if (digits < MIN_DIGITS) {
+            return pack(INVALID_NUMBER, -1, 0);
+        }
+        // Odd length: digits at even positions (from the left) are doubled
+        int luhn = (digits & 1) == 0 ? sumOdd : sumEven;
+        if (luhn % 10 != 0) {
+            return pack(LUHN_FAILED, -1, lastFour);
+        }
+
+        int brand = brandOf(prefix, Math.min(digits, MAX_PREFIX_DIGITS));
+        if (brand < 0) {
+            return pack(UNKNOWN_BRAND, -1, lastFour);
+        }
+        if (!accepted[brand]) {
+            return pack(UNSUPPORTED_BRAND, brand, lastFour);
+        }
+        if (expMonth < 1 || expMonth > 12 || expYear < 1) {
+            return pack(INVALID_EXPIRY, brand, lastFour);
+        }
+        if (expYear * 12 + expMonth - 1 < currentMonth()) {
+            return pack(EXPIRED, brand, lastFour);
+        }
+        return pack(OK, brand, lastFour);
+    }
+
+    public static int status(long result) {
+        return (int) (result >>> 48);
+    }
+
+    /**
+     * Brand name, or null if the brand is unknown.
+     */
+    public String brand(long result) {
+        int brand = (int) ((result >>> 16) & 0xFFFF) - 1;
+        return brand >= 0 ? brands[brand] : null;
+    }
+
+    public static int lastFour(long result) {
+        return (int) (result & 0xFFFF);
+    }
+
+    private int brandOf(int prefix, int prefixDigits) {
+        for (int len = prefixDigits; len > 0; len--) {
+            int p = prefix / POW10[prefixDigits - len];
+            int i = Arrays.binarySearch(lows[len], p);
+            if (i < 0) {
+                i = -i - 2; // last range starting below p
+            }
+            if (i >= 0 && p <= highs[len][i]) {
+                return brandOf[len][i];
+            }
+        }
+        return -1;
+    }
+
+    // Months since year 0 for the current month, refreshed at most once a minute
+    private int currentMonth() {
+        long now = System.currentTimeMillis();
+        if (now >= currentMonthValidUntil) {
+            YearMonth ym = YearMonth.now();
+            currentMonth = ym.getYear() * 12 + ym.getMonthValue() - 1;
+            currentMonthValidUntil = now + 60_000;
+        }
+        return currentMonth;
+    }
+
+    private static long pack(int status, int brand, int lastFour) {
+        return ((long) status << 48) | ((long) (brand + 1) << 16) | lastFour;
+    }
+}
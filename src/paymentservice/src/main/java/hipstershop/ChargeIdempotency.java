@@ -0,0 +1,103 @@
+package hipstershop;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the outcome of each idempotency key for a while, so a retried
+ * charge gets the original response instead of charging again. Requests
+ * arriving while the first one is still in flight wait for it. Only
+ * successful charges are remembered: a failed or rejected attempt is
+ * forgotten, so it can neither be replayed nor pin the key to the wrong
+ * request.
+ *
+ * This only covers requests seen by this replica within the TTL; the
+ * unique idempotency_key column in transactions is the backstop.
+ */
+@Component
+public class ChargeIdempotency {
+
+    private final Cache<String, Attempt> attempts;
+    private final Duration waitTimeout;
+
+    public ChargeIdempotency(MeterRegistry meterRegistry,
+                             @Value("${payment.idempotency.max-size:100000}") long maxSize,
+                             @Value("${payment.idempotency.ttl:24h}") Duration ttl,
+                             @Value("${payment.idempotency.wait-timeout:10s}") Duration waitTimeout) {
+        this.attempts = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.waitTimeout = waitTimeout;
+        CaffeineCacheMetrics.monitor(meterRegistry, attempts, "payment.idempotency");
+    }
+
+    /**
+     * Runs charge once per key. fingerprint identifies the request body;
+     * reusing a key for a different request is rejected with 422.
+     */
+    public ResponseEntity<?> execute(String key, String fingerprint, Supplier<ResponseEntity<?>> charge) {
+        Attempt mine = new Attempt(fingerprint, new CompletableFuture<>());
+        Attempt existing = attempts.asMap().putIfAbsent(key, mine);
+        if (existing != null) {
+            if (!existing.fingerprint.equals(fingerprint)) {
+                return keyReused();
+            }
+            return await(existing);
+        }
+
+        ResponseEntity<?> response;
+        try {
+            response = charge.get();
+        } catch (RuntimeException e) {
+            attempts.asMap().remove(key, mine);
+            mine.result.completeExceptionally(e);
+            throw e;
+        }
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            attempts.asMap().remove(key, mine);
+        }
+        mine.result.complete(response);
+        return response;
+    }
+
+    static ResponseEntity<?> keyReused() {
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                .body(Map.of("error", "Idempotency key was already used for a different charge"));
+    }
+
+    private ResponseEntity<?> await(Attempt attempt) {
+        try {
+            return attempt.result.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return inFlight();
+        } catch (ExecutionException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Payment processing failed: " + e.getCause().getMessage()));
+        } catch (Exception e) {
+            return inFlight();
+        }
+    }
+
+    private static ResponseEntity<?> inFlight() {
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(Map.of("error", "A charge with this idempotency key is still in progress"));
+    }
+
+    private record Attempt(String fingerprint, CompletableFuture<ResponseEntity<?>> result) {}
+}
@@ -12,6 +12,7 @@ import org.springframework.context.annotation.Configuration;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.util.Set;
 
 @Configuration
 public class PaymentConfig {
@@ -35,7 +36,7 @@ public class PaymentConfig {
 
     @Bean
     public DataSource dataSource() {
-        String jdbcUrl = String.format("jdbc:mysql://%s:%s/%s?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC",
+        String jdbcUrl = String.format("jdbc:mysql://%s:%s/%s?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC&rewriteBatchedStatements=true",
                 mysqlHost, mysqlPort, mysqlDatabase);
 
         HikariConfig config = new HikariConfig();
@@ -50,6 +51,12 @@ public class PaymentConfig {
         return new HikariDataSource(config);
     }
 
+    @Bean
+    public CardValidator cardValidator(@Value("${payment.card.brands}") String brandRanges,
+                                       @Value("${payment.card.accepted:visa,mastercard}") Set<String> acceptedBrands) {
+        return new CardValidator(brandRanges, acceptedBrands);
+    }
+
     @PostConstruct
     public void initDatabase() {
         // Deferred to after DataSource bean creation via PaymentController
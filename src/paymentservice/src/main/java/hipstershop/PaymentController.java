@@ -7,6 +7,7 @@ import hipstershop.model.Money;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -14,20 +15,39 @@ import org.springframework.web.bind.annotation.*;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
-import java.time.YearMonth;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/payment")
 public class PaymentController {
 
     private static final Logger logger = LoggerFactory.getLogger(PaymentController.class);
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 64;
+    private static final String INIT_LOCK = "paymentdb.schema_init";
+    private static final int INIT_LOCK_TIMEOUT_SECONDS = 60;
     private final DataSource dataSource;
+    private final TransactionLedger ledger;
+    private final CardValidator cardValidator;
+    private final ChargeIdempotency idempotency;
 
-    public PaymentController(DataSource dataSource) {
+    @Value("${payment.ledger.commit-timeout:5s}")
+    private Duration ledgerTimeout;
+
+    public PaymentController(DataSource dataSource, TransactionLedger ledger, CardValidator cardValidator,
+                             ChargeIdempotency idempotency) {
         this.dataSource = dataSource;
+        this.ledger = ledger;
+        this.cardValidator = cardValidator;
+        this.idempotency = idempotency;
     }
 
     @PostConstruct
@@ -43,68 +63,165 @@ public class PaymentController {
                 amount_nanos INT NOT NULL,
                 status ENUM('PENDING','SUCCESS','FAILED') NOT NULL DEFAULT 'SUCCESS',
                 created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                idempotency_key VARCHAR(64) NULL,
+                UNIQUE INDEX uk_idempotency_key (idempotency_key),
                 INDEX idx_transaction_id (transaction_id),
                 INDEX idx_created_at (created_at),
-                INDEX idx_status (status)
+                INDEX idx_status_created_at (status, created_at)
+            ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4
+            """;
+        String rollupSql = """
+            CREATE TABLE IF NOT EXISTS revenue_rollups (
+                minute_start TIMESTAMP NOT NULL,
+                currency_code VARCHAR(3) NOT NULL,
+                card_type VARCHAR(20) NOT NULL,
+                charges BIGINT NOT NULL,
+                amount_units BIGINT NOT NULL,
+                amount_nanos BIGINT NOT NULL,
+                PRIMARY KEY (minute_start, currency_code, card_type)
             ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4
             """;
         try (Connection conn = dataSource.getConnection();
              Statement stmt = conn.createStatement()) {
-            stmt.execute(sql);
-            logger.info("Database table 'transactions' initialized");
+            // Replicas starting together would otherwise both see no rollup table and both backfill
+            acquireInitLock(stmt);
+            try {
+                stmt.execute(sql);
+                addIdempotencyKeyColumn(conn, stmt);
+                replaceStatusIndex(conn, stmt);
+                boolean backfill = !tableExists(conn, "revenue_rollups");
+                stmt.execute(rollupSql);
+                if (backfill) {
+                    backfillRollups();
+                }
+            } finally {
+                stmt.execute("DO RELEASE_LOCK('" + INIT_LOCK + "')");
+            }
+            logger.info("Database tables 'transactions' and 'revenue_rollups' initialized");
         } catch (Exception e) {
             logger.error("Failed to initialize database", e);
             throw new RuntimeException("Database initialization failed", e);
         }
     }
 
-    @PostMapping("/charge")
-    public ResponseEntity<?> charge(@RequestBody ChargeRequest request) {
-        Money amount = request.getAmount();
-        CreditCardInfo card = request.getCreditCard();
-        String cardNumber = card.getCreditCardNumber().replace("-", "").replace(" ", "");
-
-        logger.info("PaymentService#Charge called: amount={}{}.{}, card_ending={}",
-                amount.getCurrencyCode(), amount.getUnits(), amount.getNanos(),
-                cardNumber.length() >= 4 ? cardNumber.substring(cardNumber.length() - 4) : cardNumber);
+    private static void acquireInitLock(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT GET_LOCK('" + INIT_LOCK + "', " + INIT_LOCK_TIMEOUT_SECONDS + ")")) {
+            if (!rs.next() || rs.getInt(1) != 1) {
+                throw new SQLException("Timed out waiting for the schema lock " + INIT_LOCK);
+            }
+        }
+    }
 
-        try {
-            // Validate card number
-            if (cardNumber.isEmpty() || !cardNumber.matches("\\d+")) {
-                return ResponseEntity.badRequest().body(Map.of("error", "Credit card info is invalid"));
+    /**
+     * Tables created before idempotency keys existed get the column here.
+     */
+    private void addIdempotencyKeyColumn(Connection conn, Statement stmt) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT 1 FROM information_schema.columns WHERE table_schema = DATABASE() "
+                        + "AND table_name = 'transactions' AND column_name = 'idempotency_key'");
+             ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) {
+                return;
             }
+        }
+        stmt.execute("ALTER TABLE transactions ADD COLUMN idempotency_key VARCHAR(64) NULL, "
+                + "ADD UNIQUE INDEX uk_idempotency_key (idempotency_key)");
+        logger.info("Added idempotency_key column to 'transactions'");
+    }
 
-            // Determine card type
-            String cardType = getCardType(cardNumber);
-            if (cardType == null) {
-                return ResponseEntity.badRequest().body(Map.of("error", "Credit card info is invalid"));
+    /**
+     * Listings filter by status and sort by created_at, which the composite
+     * index covers; it also serves status-only lookups, so the old index goes.
+     */
+    private void replaceStatusIndex(Connection conn, Statement stmt) throws SQLException {
+        if (indexExists(conn, "idx_status_created_at")) {
+            return;
+        }
+        stmt.execute("ALTER TABLE transactions ADD INDEX idx_status_created_at (status, created_at)"
+                + (indexExists(conn, "idx_status") ? ", DROP INDEX idx_status" : ""));
+        logger.info("Replaced idx_status with idx_status_created_at on 'transactions'");
+    }
+
+    /**
+     * Seeds a newly created rollup table from the charges already recorded.
+     * Runs before the web server accepts charges; it writes absolute values,
+     * so running it twice cannot double a rollup.
+     */
+    private void backfillRollups() throws SQLException {
+        int rows = ledger.rebuildRollups(Instant.EPOCH,
+                Instant.now().truncatedTo(ChronoUnit.MINUTES).plus(1, ChronoUnit.MINUTES));
+        logger.info("Backfilled {} revenue rollups from existing transactions", rows);
+    }
+
+    private static boolean tableExists(Connection conn, String table) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT 1 FROM information_schema.tables WHERE table_schema = DATABASE() AND table_name = ?")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
             }
+        }
+    }
 
-            // Only VISA and MasterCard accepted
-            if (!cardType.equals("visa") && !cardType.equals("mastercard")) {
-                return ResponseEntity.badRequest().body(Map.of("error",
-                        "Sorry, we cannot process " + cardType + " credit cards. Only VISA or MasterCard is accepted."));
+    private static boolean indexExists(Connection conn, String index) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT 1 FROM information_schema.statistics WHERE table_schema = DATABASE() "
+                        + "AND table_name = 'transactions' AND index_name = ?")) {
+            ps.setString(1, index);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
             }
+        }
+    }
 
-            // Validate expiration
-            int expMonth = card.getCreditCardExpirationMonth();
-            int expYear = card.getCreditCardExpirationYear();
-            YearMonth now = YearMonth.now();
-            YearMonth expiry = YearMonth.of(expYear, expMonth);
+    @PostMapping("/charge")
+    public ResponseEntity<?> charge(@RequestBody ChargeRequest request,
+                                    @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        Money amount = request.getAmount();
+        CreditCardInfo card = request.getCreditCard();
+        if (card == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Credit card info is invalid"));
+        }
 
-            if (now.isAfter(expiry)) {
+        long check = cardValidator.validate(card.getCreditCardNumber(),
+                card.getCreditCardExpirationMonth(), card.getCreditCardExpirationYear());
+        String cardType = cardValidator.brand(check);
+        String lastFour = formatLastFour(CardValidator.lastFour(check));
+        switch (CardValidator.status(check)) {
+            case CardValidator.OK:
+                break;
+            case CardValidator.UNKNOWN_BRAND:
+            case CardValidator.UNSUPPORTED_BRAND:
                 return ResponseEntity.badRequest().body(Map.of("error",
-                        "Your credit card (ending " + cardNumber.substring(cardNumber.length() - 4) +
-                                ") expired on " + expMonth + "/" + expYear));
-            }
+                        "Sorry, we cannot process " + (cardType != null ? cardType : "unknown")
+                                + " credit cards. Only " + String.join(" or ", cardValidator.acceptedBrandNames()) + " is accepted."));
+            case CardValidator.EXPIRED:
+                return ResponseEntity.badRequest().body(Map.of("error",
+                        "Your credit card (ending " + lastFour + ") expired on "
+                                + card.getCreditCardExpirationMonth() + "/" + card.getCreditCardExpirationYear()));
+            default:
+                return ResponseEntity.badRequest().body(Map.of("error", "Credit card info is invalid"));
+        }
 
-            // Generate transaction ID
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return commitCharge(amount, cardType, lastFour, null);
+        }
+        if (idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Idempotency key is too long"));
+        }
+        String fingerprint = amount.getCurrencyCode() + "|" + amount.getUnits() + "|" + amount.getNanos() + "|" + lastFour;
+        return idempotency.execute(idempotencyKey, fingerprint,
+                () -> commitCharge(amount, cardType, lastFour, idempotencyKey));
+    }
+
+    private ResponseEntity<?> commitCharge(Money amount, String cardType, String lastFour, String idempotencyKey) {
+        try {
             String transactionId = UUID.randomUUID().toString();
-            String lastFour = cardNumber.substring(cardNumber.length() - 4);
 
-            // Save transaction to MySQL
-            saveTransaction(transactionId, cardType, lastFour,
-                    amount.getCurrencyCode(), amount.getUnits(), amount.getNanos());
+            // Respond only once the ledger batch holding this charge has committed
+            ledger.record(new TransactionLedger.LedgerEntry(transactionId, cardType, lastFour,
+                    amount.getCurrencyCode(), amount.getUnits(), amount.getNanos(), "SUCCESS", idempotencyKey))
+                    .get(ledgerTimeout.toMillis(), TimeUnit.MILLISECONDS);
 
             logger.info("Transaction processed: {} ending {} Amount: {}{}.{}",
                     cardType, lastFour,
@@ -112,53 +229,48 @@ public class PaymentController {
 
             return ResponseEntity.ok(new ChargeResponse(transactionId));
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Payment processing interrupted"));
         } catch (Exception e) {
-            logger.error("Payment processing failed", e);
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            if (idempotencyKey != null && TransactionLedger.isDuplicateKey(cause)) {
+                // Another request (possibly on another replica) already charged this key
+                return replay(idempotencyKey, amount, lastFour);
+            }
+            logger.error("Payment processing failed: {}", cause.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(Map.of("error", "Payment processing failed: " + e.getMessage()));
+                    .body(Map.of("error", "Payment processing failed: " + cause.getMessage()));
         }
     }
 
-    private void saveTransaction(String transactionId, String cardType, String lastFour,
-                                 String currencyCode, long units, int nanos) {
-        String sql = "INSERT INTO transactions (transaction_id, card_type, card_last_four, currency_code, amount_units, amount_nanos, status) VALUES (?, ?, ?, ?, ?, ?, ?)";
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, transactionId);
-            ps.setString(2, cardType);
-            ps.setString(3, lastFour);
-            ps.setString(4, currencyCode);
-            ps.setLong(5, units);
-            ps.setInt(6, nanos);
-            ps.setString(7, "SUCCESS");
-            ps.executeUpdate();
-            logger.info("Transaction {} saved to database with status SUCCESS", transactionId);
-        } catch (Exception e) {
-            logger.error("Failed to save transaction {} to database", transactionId, e);
+    private ResponseEntity<?> replay(String idempotencyKey, Money amount, String lastFour) {
+        try {
+            TransactionLedger.LedgerEntry existing = ledger.findByIdempotencyKey(idempotencyKey);
+            if (existing == null) {
+                throw new SQLException("No transaction found for idempotency key " + idempotencyKey);
+            }
+            if (!existing.currencyCode().equals(amount.getCurrencyCode())
+                    || existing.units() != amount.getUnits() || existing.nanos() != amount.getNanos()
+                    || !existing.lastFour().equals(lastFour)) {
+                return ChargeIdempotency.keyReused();
+            }
+            logger.info("Replayed transaction {} for idempotency key {}", existing.transactionId(), idempotencyKey);
+            return ResponseEntity.ok(new ChargeResponse(existing.transactionId()));
+        } catch (SQLException e) {
+            logger.error("Idempotent replay failed: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Payment processing failed: " + e.getMessage()));
         }
     }
 
-    private String getCardType(String number) {
-        if (number.startsWith("4")) {
-            return "visa";
-        } else if (number.length() >= 2) {
-            int prefix = Integer.parseInt(number.substring(0, 2));
-            if (prefix >= 51 && prefix <= 55) {
-                return "mastercard";
-            }
-            if (number.length() >= 4) {
-                int prefix4 = Integer.parseInt(number.substring(0, 4));
-                if (prefix4 >= 2221 && prefix4 <= 2720) {
-                    return "mastercard";
-                }
-            }
-            if (number.startsWith("34") || number.startsWith("37")) {
-                return "amex";
-            }
-            if (number.startsWith("6011") || number.startsWith("65")) {
-                return "discover";
-            }
+    private static String formatLastFour(int lastFour) {
+        char[] out = new char[4];
+        for (int i = 3; i >= 0; i--) {
+            out[i] = (char) ('0' + lastFour % 10);
+            lastFour /= 10;
         }
-        return "unknown";
+        return new String(out);
     }
 }
@@ -0,0 +1,72 @@
+package hipstershop;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ledger reports for operators. These live under /internal, which the API
+ * gateway does not route, so they are only reachable from inside the
+ * cluster and never with a customer's token.
+ */
+@RestController
+@RequestMapping("/internal/payment")
+public class PaymentReportsController {
+
+    private static final Logger logger = LoggerFactory.getLogger(PaymentReportsController.class);
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final Duration DEFAULT_REPORT_RANGE = Duration.ofDays(1);
+    private static final Duration MAX_REVENUE_RANGE = Duration.ofDays(31);
+    private static final Set<String> TRANSACTION_STATUSES = Set.of("PENDING", "SUCCESS", "FAILED");
+    private final TransactionReports reports;
+
+    public PaymentReportsController(TransactionReports reports) {
+        this.reports = reports;
+    }
+
+    @GetMapping("/transactions")
+    public ResponseEntity<?> getTransactions(@RequestParam(required = false) Instant from,
+                                             @RequestParam(required = false) Instant to,
+                                             @RequestParam(required = false) String status,
+                                             @RequestParam(defaultValue = "50") int limit,
+                                             @RequestParam(required = false) String cursor) {
+        Instant end = to != null ? to : Instant.now();
+        Instant start = from != null ? from : end.minus(DEFAULT_REPORT_RANGE);
+        if (status != null && !TRANSACTION_STATUSES.contains(status)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "status must be one of " + TRANSACTION_STATUSES));
+        }
+        try {
+            return ResponseEntity.ok(reports.getTransactions(start, end, status,
+                    Math.max(1, Math.min(limit, MAX_PAGE_SIZE)), cursor));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (SQLException e) {
+            logger.error("Transaction listing failed", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    @GetMapping("/revenue")
+    public ResponseEntity<?> getRevenue(@RequestParam(required = false) Instant from,
+                                        @RequestParam(required = false) Instant to,
+                                        @RequestParam(required = false) String currency) {
+        Instant end = to != null ? to : Instant.now();
+        Instant start = from != null ? from : end.minus(DEFAULT_REPORT_RANGE);
+        if (Duration.between(start, end).compareTo(MAX_REVENUE_RANGE) > 0) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Revenue range is limited to " + MAX_REVENUE_RANGE));
+        }
+        try {
+            return ResponseEntity.ok(reports.getRevenue(start, end, currency));
+        } catch (SQLException e) {
+            logger.error("Revenue report failed", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package hipstershop;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group-commits charges to the transactions table.
+ * Concurrent charges are collected into one JDBC batch (rewritten by the
+ * driver into a multi-row INSERT) and committed in a single transaction.
+ * Each caller's future completes when that transaction commits. If the
+ * batch fails it is rolled back and its rows are retried one by one, so a
+ * single bad row only fails its own charge.
+ *
+ * The same transaction adds the batch's successful charges to the
+ * per-minute revenue_rollups, so the rollups always match the committed
+ * rows. Within a replica only this writer thread increments them.
+ *
+ * Charges committed without a rollup, e.g. by a replica still running an
+ * older version during a rolling update, are picked up by a periodic
+ * reconcile that recomputes the recent closed minutes from the
+ * transactions table and writes absolute values, so it can run on every
+ * replica and any number of times.
+ */
+@Component
+public class TransactionLedger {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionLedger.class);
+    private static final String INSERT_SQL = "INSERT INTO transactions (transaction_id, card_type, card_last_four, currency_code, amount_units, amount_nanos, status, idempotency_key, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String ROLLUP_SQL = "INSERT INTO revenue_rollups (minute_start, currency_code, card_type, charges, amount_units, amount_nanos) VALUES (?, ?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE charges = charges + VALUES(charges), amount_units = amount_units + VALUES(amount_units), amount_nanos = amount_nanos + VALUES(amount_nanos)";
+    private static final String REBUILD_ROLLUPS_SQL = """
+        INSERT INTO revenue_rollups (minute_start, currency_code, card_type, charges, amount_units, amount_nanos)
+        SELECT FROM_UNIXTIME(UNIX_TIMESTAMP(created_at) DIV 60 * 60), currency_code, card_type,
+               COUNT(*), SUM(amount_units), SUM(amount_nanos)
+        FROM transactions WHERE status = 'SUCCESS' AND created_at >= ? AND created_at < ?
+        GROUP BY 1, currency_code, card_type
+        ON DUPLICATE KEY UPDATE charges = VALUES(charges), amount_units = VALUES(amount_units),
+                                amount_nanos = VALUES(amount_nanos)
+        """;
+    private static final String FIND_BY_KEY_SQL = "SELECT transaction_id, card_type, card_last_four, currency_code, amount_units, amount_nanos, status FROM transactions WHERE idempotency_key = ?";
+
+    private static final int MYSQL_DUPLICATE_KEY = 1062;
+
+    private final DataSource dataSource;
+    private final BlockingQueue<Pending> queue;
+    private final int batchSize;
+    private final Duration flushInterval;
+
+    private final Duration reconcileWindow;
+
+    private final Timer commitTimer;
+    private final DistributionSummary batchSizes;
+
+    private volatile boolean running = true;
+    private Thread writer;
+
+    public TransactionLedger(DataSource dataSource, MeterRegistry meterRegistry,
+                             @Value("${payment.ledger.queue-capacity:10000}") int queueCapacity,
+                             @Value("${payment.ledger.batch-size:200}") int batchSize,
+                             @Value("${payment.ledger.flush-interval:2ms}") Duration flushInterval,
+                             @Value("${payment.rollups.reconcile-window:15m}") Duration reconcileWindow) {
+        this.dataSource = dataSource;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.reconcileWindow = reconcileWindow;
+
+        Gauge.builder("payment.ledger.queue.depth", queue, BlockingQueue::size)
+                .description("Charges waiting to be written to the ledger")
+                .register(meterRegistry);
+        this.commitTimer = Timer.builder("payment.ledger.commit")
+                .description("Time to insert and commit one batch of charges")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("payment.ledger.batch.size")
+                .description("Charges per ledger transaction")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        writer = new Thread(this::run, "ledger-writer");
+        writer.start();
+    }
+
+    /**
+     * Queues a charge and returns a future that completes once it is
+     * committed. Fails immediately if the queue is full.
+     */
+    public CompletableFuture<Void> record(LedgerEntry entry) {
+        Pending pending = new Pending(entry, new CompletableFuture<>());
+        if (!running || !queue.offer(pending)) {
+            pending.done.completeExceptionally(new IllegalStateException("Ledger queue is full"));
+        }
+        return pending.done;
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        List<Pending> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (int from = 0; from < remaining.size(); from += batchSize) {
+            write(remaining.subList(from, Math.min(from + batchSize, remaining.size())));
+        }
+    }
+
+    private void run() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<Pending> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                // Give concurrent charges a short window to join this transaction
+                long deadline = System.nanoTime() + flushInterval.toNanos();
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || wait <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Ledger writer loop failed", e);
+            }
+        }
+    }
+
+    private void write(List<Pending> batch) {
+        long start = System.nanoTime();
+        try {
+            insert(batch);
+            batch.forEach(p -> p.done.complete(null));
+        } catch (SQLException e) {
+            logger.warn("Ledger batch of {} failed, retrying rows individually: {}", batch.size(), e.getMessage());
+            for (Pending p : batch) {
+                try {
+                    insert(List.of(p));
+                    p.done.complete(null);
+                } catch (SQLException rowError) {
+                    logger.error("Failed to save transaction {}: {}", p.entry.transactionId(), rowError.getMessage());
+                    p.done.completeExceptionally(rowError);
+                }
+            }
+        } finally {
+            commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            batchSizes.record(batch.size());
+        }
+    }
+
+    private void insert(List<Pending> batch) throws SQLException {
+        // Whole seconds, as stored by the TIMESTAMP column, so rows and rollups agree on the minute
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        Timestamp createdAt = Timestamp.from(now);
+        Timestamp minute = Timestamp.from(now.truncatedTo(ChronoUnit.MINUTES));
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(INSERT_SQL);
+                 PreparedStatement rollup = conn.prepareStatement(ROLLUP_SQL)) {
+                Map<RollupKey, long[]> totals = new HashMap<>();
+                for (Pending p : batch) {
+                    LedgerEntry e = p.entry;
+                    ps.setString(1, e.transactionId());
+                    ps.setString(2, e.cardType());
+                    ps.setString(3, e.lastFour());
+                    ps.setString(4, e.currencyCode());
+                    ps.setLong(5, e.units());
+                    ps.setInt(6, e.nanos());
+                    ps.setString(7, e.status());
+                    ps.setString(8, e.idempotencyKey());
+                    ps.setTimestamp(9, createdAt);
+                    ps.addBatch();
+                    if ("SUCCESS".equals(e.status())) {
+                        long[] t = totals.computeIfAbsent(new RollupKey(e.currencyCode(), e.cardType()), k -> new long[3]);
+                        t[0]++;
+                        t[1] += e.units();
+                        t[2] += e.nanos();
+                    }
+                }
+                ps.executeBatch();
+                for (Map.Entry<RollupKey, long[]> t : totals.entrySet()) {
+                    rollup.setTimestamp(1, minute);
+                    rollup.setString(2, t.getKey().currencyCode());
+                    rollup.setString(3, t.getKey().cardType());
+                    rollup.setLong(4, t.getValue()[0]);
+                    rollup.setLong(5, t.getValue()[1]);
+                    rollup.setLong(6, t.getValue()[2]);
+                    rollup.addBatch();
+                }
+                rollup.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Recomputes the rollups of every minute in [from, to) from the
+     * transactions table, overwriting what is stored. Both bounds should be
+     * whole minutes. Returns the number of rows affected.
+     */
+    public int rebuildRollups(Instant from, Instant to) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(REBUILD_ROLLUPS_SQL)) {
+            ps.setTimestamp(1, Timestamp.from(from));
+            ps.setTimestamp(2, Timestamp.from(to));
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Rebuilds the closed minutes of the last reconcile-window. The current
+     * minute is left to the writer and picked up by a later run.
+     */
+    @Scheduled(fixedDelayString = "${payment.rollups.reconcile-interval-ms:60000}",
+               initialDelayString = "${payment.rollups.reconcile-interval-ms:60000}")
+    public void reconcileRollups() {
+        Instant to = Instant.now().truncatedTo(ChronoUnit.MINUTES);
+        try {
+            rebuildRollups(to.minus(reconcileWindow), to);
+        } catch (SQLException e) {
+            logger.warn("Failed to reconcile revenue rollups: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the committed charge recorded under an idempotency key, or null.
+     */
+    public LedgerEntry findByIdempotencyKey(String key) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(FIND_BY_KEY_SQL)) {
+            ps.setString(1, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                return new LedgerEntry(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                        rs.getLong(5), rs.getInt(6), rs.getString(7), key);
+            }
+        }
+    }
+
+    /**
+     * Whether a failed insert hit a unique key. Batched inserts surface this
+     * as a BatchUpdateException, so check the vendor code as well.
+     */
+    static boolean isDuplicateKey(Throwable e) {
+        return e instanceof SQLIntegrityConstraintViolationException
+                || (e instanceof SQLException sql && sql.getErrorCode() == MYSQL_DUPLICATE_KEY);
+    }
+
+    /**
+     * One row of the transactions table. idempotencyKey may be null.
+     */
+    public record LedgerEntry(String transactionId, String cardType, String lastFour,
+                              String currencyCode, long units, int nanos, String status,
+                              String idempotencyKey) {}
+
+    private record RollupKey(String currencyCode, String cardType) {}
+
+    private record Pending(LedgerEntry entry, CompletableFuture<Void> done) {}
+}
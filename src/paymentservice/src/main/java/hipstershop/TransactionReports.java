@@ -0,0 +1,147 @@
+package hipstershop;
+
+import hipstershop.model.Money;
+import hipstershop.model.RevenueRollup;
+import hipstershop.model.Transaction;
+import hipstershop.model.TransactionPage;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Read side of the ledger. Transaction listings are keyset-paginated on
+ * (created_at, id), newest first, so every page is an index range scan no
+ * matter how deep the client pages. Revenue reports read the per-minute
+ * revenue_rollups kept by {@link TransactionLedger} instead of scanning
+ * transactions.
+ */
+@Service
+public class TransactionReports {
+
+    private static final long NANOS_PER_UNIT = 1_000_000_000L;
+
+    private final DataSource dataSource;
+
+    public TransactionReports(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Returns one page of transactions created in [from, to), optionally with
+     * the given status. The cursor is the nextCursor of the previous page, or
+     * null for the first.
+     */
+    public TransactionPage getTransactions(Instant from, Instant to, String status, int limit, String cursor)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder(
+                "SELECT id, transaction_id, card_type, card_last_four, currency_code, amount_units, amount_nanos, status, created_at "
+                        + "FROM transactions WHERE created_at >= ? AND created_at < ?");
+        List<Object> params = new ArrayList<>(List.of(Timestamp.from(from), Timestamp.from(to)));
+        if (status != null) {
+            sql.append(" AND status = ?");
+            params.add(status);
+        }
+        if (cursor != null && !cursor.isEmpty()) {
+            long[] position = decodeCursor(cursor);
+            Timestamp createdAt = new Timestamp(position[0]);
+            sql.append(" AND (created_at < ? OR (created_at = ? AND id < ?))");
+            params.add(createdAt);
+            params.add(createdAt);
+            params.add(position[1]);
+        }
+        sql.append(" ORDER BY created_at DESC, id DESC LIMIT ?");
+        params.add(limit + 1);
+
+        List<Transaction> transactions = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                long lastId = 0;
+                Timestamp lastCreatedAt = null;
+                while (rs.next()) {
+                    if (transactions.size() == limit) {
+                        return new TransactionPage(transactions, encodeCursor(lastCreatedAt.getTime(), lastId));
+                    }
+                    lastId = rs.getLong("id");
+                    lastCreatedAt = rs.getTimestamp("created_at");
+                    transactions.add(toTransaction(rs, lastCreatedAt));
+                }
+            }
+        }
+        return new TransactionPage(transactions, null);
+    }
+
+    /**
+     * Returns per-minute revenue of successful charges in [from, to), oldest
+     * first, optionally for one currency.
+     */
+    public List<RevenueRollup> getRevenue(Instant from, Instant to, String currencyCode) throws SQLException {
+        String sql = "SELECT minute_start, currency_code, card_type, charges, amount_units, amount_nanos "
+                + "FROM revenue_rollups WHERE minute_start >= ? AND minute_start < ?"
+                + (currencyCode != null ? " AND currency_code = ?" : "")
+                + " ORDER BY minute_start, currency_code, card_type";
+        List<RevenueRollup> rollups = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setTimestamp(1, Timestamp.from(from));
+            ps.setTimestamp(2, Timestamp.from(to));
+            if (currencyCode != null) {
+                ps.setString(3, currencyCode);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    RevenueRollup rollup = new RevenueRollup();
+                    rollup.setMinute(rs.getTimestamp(1).toInstant().toString());
+                    rollup.setCurrencyCode(rs.getString(2));
+                    rollup.setCardType(rs.getString(3));
+                    rollup.setCharges(rs.getLong(4));
+                    // Nanos are summed without carrying; normalize here
+                    long nanos = rs.getLong(6);
+                    rollup.setRevenue(new Money(rollup.getCurrencyCode(),
+                            rs.getLong(5) + nanos / NANOS_PER_UNIT, (int) (nanos % NANOS_PER_UNIT)));
+                    rollups.add(rollup);
+                }
+            }
+        }
+        return rollups;
+    }
+
+    private static Transaction toTransaction(ResultSet rs, Timestamp createdAt) throws SQLException {
+        Transaction tx = new Transaction();
+        tx.setTransactionId(rs.getString("transaction_id"));
+        tx.setCardType(rs.getString("card_type"));
+        tx.setCardLastFour(rs.getString("card_last_four"));
+        tx.setAmount(new Money(rs.getString("currency_code"), rs.getLong("amount_units"), rs.getInt("amount_nanos")));
+        tx.setStatus(rs.getString("status"));
+        tx.setCreatedAt(createdAt.toInstant().toString());
+        return tx;
+    }
+
+    private static String encodeCursor(long createdAtMillis, long id) {
+        String raw = createdAtMillis + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long[] decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.indexOf(':');
+            return new long[]{Long.parseLong(raw.substring(0, sep)), Long.parseLong(raw.substring(sep + 1))};
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package hipstershop.model;
+
+public class RevenueRollup {
+    private String minute;
+    private String currencyCode;
+    private String cardType;
+    private long charges;
+    private Money revenue;
+
+    public RevenueRollup() {}
+
+    public String getMinute() { return minute; }
+    public void setMinute(String minute) { this.minute = minute; }
+    public String getCurrencyCode() { return currencyCode; }
+    public void setCurrencyCode(String currencyCode) { this.currencyCode = currencyCode; }
+    public String getCardType() { return cardType; }
+    public void setCardType(String cardType) { this.cardType = cardType; }
+    public long getCharges() { return charges; }
+    public void setCharges(long charges) { this.charges = charges; }
+    public Money getRevenue() { return revenue; }
+    public void setRevenue(Money revenue) { this.revenue = revenue; }
+}
@@ -0,0 +1,25 @@
+package hipstershop.model;
+
+public class Transaction {
+    private String transactionId;
+    private String cardType;
+    private String cardLastFour;
+    private Money amount;
+    private String status;
+    private String createdAt;
+
+    public Transaction() {}
+
+    public String getTransactionId() { return transactionId; }
+    public void setTransactionId(String transactionId) { this.transactionId = transactionId; }
+    public String getCardType() { return cardType; }
+    public void setCardType(String cardType) { this.cardType = cardType; }
+    public String getCardLastFour() { return cardLastFour; }
+    public void setCardLastFour(String cardLastFour) { this.cardLastFour = cardLastFour; }
+    public Money getAmount() { return amount; }
+    public void setAmount(Money amount) { this.amount = amount; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public String getCreatedAt() { return createdAt; }
+    public void setCreatedAt(String createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,21 @@
+package hipstershop.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TransactionPage {
+    private List<Transaction> transactions = new ArrayList<>();
+    private String nextCursor;
+
+    public TransactionPage() {}
+
+    public TransactionPage(List<Transaction> transactions, String nextCursor) {
+        this.transactions = transactions;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Transaction> getTransactions() { return transactions; }
+    public void setTransactions(List<Transaction> transactions) { this.transactions = transactions; }
+    public String getNextCursor() { return nextCursor; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+}
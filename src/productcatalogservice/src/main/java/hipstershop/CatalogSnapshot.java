@@ -0,0 +1,31 @@
+package hipstershop;
+
+import hipstershop.model.Product;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of the whole catalog as loaded at one point in time.
+ * listJson and jsonById hold pre-serialized response bodies so the hot
+ * endpoints can write bytes straight to the socket; searchIndex is built
+ * from the same products.
+ */
+public record CatalogSnapshot(List<Product> products,
+                              Map<String, Product> byId,
+                              Map<String, byte[]> jsonById,
+                              byte[] listJson,
+                              ProductSearchIndex searchIndex) {
+
+    public static final CatalogSnapshot EMPTY = new CatalogSnapshot(List.of(), Map.of(), Map.of(),
+            "[]".getBytes(StandardCharsets.UTF_8), ProductSearchIndex.build(List.of()));
+
+    public Product get(String id) {
+        return byId.get(id);
+    }
+
+    public byte[] getJson(String id) {
+        return jsonById.get(id);
+    }
+}
@@ -0,0 +1,118 @@
+package hipstershop;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import hipstershop.model.Money;
+import hipstershop.model.Product;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the catalog in memory so list/get requests never touch MongoDB.
+ * The snapshot is rebuilt on a fixed delay and swapped in atomically,
+ * but only when the serialized catalog actually changed. Until the first
+ * load succeeds the service is not ready and callers query MongoDB, so a
+ * failed load at startup never serves an empty catalog.
+ */
+@Service
+public class CatalogSnapshotService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatalogSnapshotService.class);
+
+    private final MongoCollection<Document> collection;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private volatile CatalogSnapshot snapshot = CatalogSnapshot.EMPTY;
+    private volatile boolean loaded;
+
+    public CatalogSnapshotService(MongoClient mongoClient, ObjectMapper objectMapper,
+                                  @Value("${catalog.snapshot.enabled:true}") boolean enabled) {
+        this.collection = mongoClient.getDatabase("productcatalog").getCollection("products");
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+    }
+
+    /**
+     * True once a snapshot has been loaded from MongoDB.
+     */
+    public boolean isReady() {
+        return enabled && loaded;
+    }
+
+    public CatalogSnapshot current() {
+        return snapshot;
+    }
+
+    @Scheduled(fixedDelayString = "${catalog.snapshot.refresh-interval-ms:30000}",
+               initialDelayString = "${catalog.snapshot.refresh-interval-ms:30000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<Product> products = new ArrayList<>();
+            Map<String, Product> byId = new LinkedHashMap<>();
+            for (Document doc : collection.find()) {
+                Product product = toProduct(doc);
+                products.add(product);
+                byId.put(product.getId(), product);
+            }
+            byte[] listJson = objectMapper.writeValueAsBytes(products);
+            if (loaded && Arrays.equals(listJson, snapshot.listJson())) {
+                return;
+            }
+            Map<String, byte[]> jsonById = new HashMap<>();
+            for (Product product : products) {
+                jsonById.put(product.getId(), objectMapper.writeValueAsBytes(product));
+            }
+            snapshot = new CatalogSnapshot(Collections.unmodifiableList(products),
+                    Collections.unmodifiableMap(byId), Collections.unmodifiableMap(jsonById), listJson,
+                    ProductSearchIndex.build(products));
+            loaded = true;
+            logger.info("Catalog snapshot refreshed with {} products", products.size());
+        } catch (JsonProcessingException e) {
+            logger.error("Failed to serialize catalog snapshot", e);
+        } catch (Exception e) {
+            logger.warn("Catalog snapshot refresh failed, {}: {}",
+                    loaded ? "keeping previous snapshot" : "serving from MongoDB", e.getMessage());
+        }
+    }
+
+    static Product toProduct(Document doc) {
+        Document priceDoc = doc.get("priceUsd", Document.class);
+
+        Money price = new Money(
+                priceDoc.getString("currencyCode"),
+                priceDoc.getInteger("units", 0),
+                priceDoc.getInteger("nanos", 0)
+        );
+
+        Product product = new Product();
+        product.setId(doc.getString("_id"));
+        product.setName(doc.getString("name"));
+        product.setDescription(doc.getString("description"));
+        product.setPicture(doc.getString("picture"));
+        product.setPriceUsd(price);
+
+        List<String> categories = doc.getList("categories", String.class);
+        if (categories != null) {
+            product.setCategories(categories);
+        }
+
+        return product;
+    }
+}
@@ -2,8 +2,10 @@ package hipstershop;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class ProductCatalogApplication {
     public static void main(String[] args) {
         SpringApplication.run(ProductCatalogApplication.class, args);
@@ -4,13 +4,13 @@ import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Indexes;
-import hipstershop.model.Money;
 import hipstershop.model.Product;
 import jakarta.annotation.PostConstruct;
 import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
@@ -18,24 +18,32 @@ import org.springframework.web.server.ResponseStatusException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/products")
 public class ProductCatalogController {
 
     private static final Logger logger = LoggerFactory.getLogger(ProductCatalogController.class);
+    private static final int MAX_BATCH_IDS = 100;
     private final MongoCollection<Document> collection;
+    private final CatalogSnapshotService snapshots;
 
-    public ProductCatalogController(MongoClient mongoClient) {
+    public ProductCatalogController(MongoClient mongoClient, CatalogSnapshotService snapshots) {
         MongoDatabase database = mongoClient.getDatabase("productcatalog");
         this.collection = database.getCollection("products");
+        this.snapshots = snapshots;
     }
 
     @PostConstruct
     public void init() {
         seedIfEmpty();
         ensureIndexes();
+        snapshots.refresh();
     }
 
     private void ensureIndexes() {
@@ -77,54 +85,94 @@ public class ProductCatalogController {
     }
 
     @GetMapping
-    public List<Product> listProducts() {
+    public ResponseEntity<?> listProducts() {
+        if (snapshots.isReady()) {
+            return json(snapshots.current().listJson());
+        }
         List<Product> products = new ArrayList<>();
         for (Document doc : collection.find()) {
             products.add(documentToProduct(doc));
         }
-        return products;
+        return ResponseEntity.ok(products);
     }
 
     @GetMapping("/{id}")
-    public Product getProduct(@PathVariable String id) {
+    public ResponseEntity<?> getProduct(@PathVariable String id) {
+        if (snapshots.isReady()) {
+            byte[] body = snapshots.current().getJson(id);
+            if (body == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No product with ID " + id);
+            }
+            return json(body);
+        }
         Document doc = collection.find(new Document("_id", id)).first();
         if (doc == null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No product with ID " + id);
         }
-        return documentToProduct(doc);
+        return ResponseEntity.ok(documentToProduct(doc));
+    }
+
+    /**
+     * Resolves up to 100 product IDs with a single $in query.
+     * Results follow the order of the requested IDs; unknown IDs are skipped.
+     */
+    @PostMapping("/batch")
+    public List<Product> getProducts(@RequestBody List<String> ids) {
+        if (ids.size() > MAX_BATCH_IDS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "At most " + MAX_BATCH_IDS + " product IDs per batch");
+        }
+        Set<String> uniqueIds = new LinkedHashSet<>(ids);
+        if (uniqueIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<String, Product> byId = snapshots.isReady() ? snapshots.current().byId() : loadByIds(uniqueIds);
+        List<Product> products = new ArrayList<>(uniqueIds.size());
+        for (String id : uniqueIds) {
+            Product product = byId.get(id);
+            if (product != null) {
+                products.add(product);
+            }
+        }
+        return products;
+    }
+
+    private Map<String, Product> loadByIds(Set<String> uniqueIds) {
+        Map<String, Product> byId = new HashMap<>();
+        for (Document doc : collection.find(new Document("_id", new Document("$in", new ArrayList<>(uniqueIds))))) {
+            Product product = documentToProduct(doc);
+            byId.put(product.getId(), product);
+        }
+        return byId;
     }
 
     @GetMapping("/search")
-    public List<Product> searchProducts(@RequestParam("q") String query) {
-        Document textFilter = new Document("$text", new Document("$search", query));
+    public List<Product> searchProducts(@RequestParam("q") String query,
+                                        @RequestParam(value = "category", required = false) String category,
+                                        @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        // MongoDB reads limit(0) as "no limit"; both paths return nothing instead
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        if (snapshots.isReady()) {
+            return snapshots.current().searchIndex().search(query, category, limit);
+        }
+        Document filter = new Document("$text", new Document("$search", query));
+        if (category != null && !category.isBlank()) {
+            filter.append("categories", category);
+        }
         List<Product> results = new ArrayList<>();
-        for (Document doc : collection.find(textFilter)) {
+        for (Document doc : collection.find(filter).limit(limit)) {
             results.add(documentToProduct(doc));
         }
         return results;
     }
 
     private Product documentToProduct(Document doc) {
-        Document priceDoc = doc.get("priceUsd", Document.class);
-
-        Money price = new Money(
-                priceDoc.getString("currencyCode"),
-                priceDoc.getInteger("units", 0),
-                priceDoc.getInteger("nanos", 0)
-        );
-
-        Product product = new Product();
-        product.setId(doc.getString("_id"));
-        product.setName(doc.getString("name"));
-        product.setDescription(doc.getString("description"));
-        product.setPicture(doc.getString("picture"));
-        product.setPriceUsd(price);
-
-        List<String> categories = doc.getList("categories", String.class);
-        if (categories != null) {
-            product.setCategories(categories);
-        }
+        return CatalogSnapshotService.toProduct(doc);
+    }
 
-        return product;
+    private ResponseEntity<byte[]> json(byte[] body) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 }
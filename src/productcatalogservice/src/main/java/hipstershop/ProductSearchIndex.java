@@ -0,0 +1,206 @@
+package hipstershop;
+
+import hipstershop.model.Product;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable inverted index over the catalog, rebuilt with every snapshot.
+ * Name, categories and description are tokenized into one weighted field and
+ * ranked with BM25. Every query token also matches as a prefix, so partial
+ * input ("sung") finds "sunglasses"; prefix hits score below exact hits.
+ */
+public final class ProductSearchIndex {
+
+    private static final float NAME_WEIGHT = 3f;
+    private static final float CATEGORY_WEIGHT = 2f;
+    private static final float DESCRIPTION_WEIGHT = 1f;
+    private static final float PREFIX_WEIGHT = 0.5f;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private final Product[] docs;
+    private final String[][] docCategories;
+    private final float[] docLength;
+    private final float avgDocLength;
+    private final String[] terms;
+    private final int[][] postings;
+    private final float[][] frequencies;
+
+    private ProductSearchIndex(Product[] docs, String[][] docCategories, float[] docLength,
+                               String[] terms, int[][] postings, float[][] frequencies) {
+        this.docs = docs;
+        this.docCategories = docCategories;
+        this.docLength = docLength;
+        this.terms = terms;
+        this.postings = postings;
+        this.frequencies = frequencies;
+        float total = 0;
+        for (float len : docLength) {
+            total += len;
+        }
+        this.avgDocLength = docs.length == 0 ? 1 : Math.max(total / docs.length, 1);
+    }
+
+    public static ProductSearchIndex build(List<Product> products) {
+        int n = products.size();
+        Product[] docs = products.toArray(new Product[0]);
+        String[][] docCategories = new String[n][];
+        float[] docLength = new float[n];
+        // term -> (doc -> weighted term frequency), sorted so prefixes are contiguous
+        TreeMap<String, Map<Integer, Float>> inverted = new TreeMap<>();
+
+        for (int d = 0; d < n; d++) {
+            Product p = docs[d];
+            docLength[d] += addField(inverted, d, p.getName(), NAME_WEIGHT);
+            docLength[d] += addField(inverted, d, p.getDescription(), DESCRIPTION_WEIGHT);
+            List<String> categories = p.getCategories() != null ? p.getCategories() : List.of();
+            docCategories[d] = new String[categories.size()];
+            for (int c = 0; c < categories.size(); c++) {
+                docCategories[d][c] = normalize(categories.get(c));
+                docLength[d] += addField(inverted, d, categories.get(c), CATEGORY_WEIGHT);
+            }
+        }
+
+        String[] terms = new String[inverted.size()];
+        int[][] postings = new int[inverted.size()][];
+        float[][] frequencies = new float[inverted.size()][];
+        int t = 0;
+        for (Map.Entry<String, Map<Integer, Float>> e : inverted.entrySet()) {
+            terms[t] = e.getKey();
+            int[] ids = e.getValue().keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+            float[] tf = new float[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                tf[i] = e.getValue().get(ids[i]);
+            }
+            postings[t] = ids;
+            frequencies[t] = tf;
+            t++;
+        }
+        return new ProductSearchIndex(docs, docCategories, docLength, terms, postings, frequencies);
+    }
+
+    /**
+     * Search returns the best matches for the query, most relevant first.
+     * Tokens are OR-ed together; category (optional) restricts results to
+     * products in that category and limit caps the number of results.
+     */
+    public List<Product> search(String query, String category, int limit) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty() || docs.length == 0 || limit <= 0) {
+            return List.of();
+        }
+        String categoryFilter = category == null || category.isBlank() ? null : normalize(category);
+
+        float[] scores = new float[docs.length];
+        float[] tokenScores = new float[docs.length];
+        for (String token : tokens) {
+            Arrays.fill(tokenScores, 0f);
+            for (int t = lowerBound(token); t < terms.length && terms[t].startsWith(token); t++) {
+                float boost = terms[t].length() == token.length() ? 1f : PREFIX_WEIGHT;
+                int[] ids = postings[t];
+                float[] tf = frequencies[t];
+                float idf = (float) Math.log(1 + (docs.length - ids.length + 0.5) / (ids.length + 0.5));
+                for (int i = 0; i < ids.length; i++) {
+                    int d = ids[i];
+                    float norm = K1 * (1 - B + B * docLength[d] / avgDocLength);
+                    float score = boost * idf * tf[i] * (K1 + 1) / (tf[i] + norm);
+                    if (score > tokenScores[d]) {
+                        tokenScores[d] = score;
+                    }
+                }
+            }
+            for (int d = 0; d < docs.length; d++) {
+                scores[d] += tokenScores[d];
+            }
+        }
+
+        List<Integer> hits = new ArrayList<>();
+        for (int d = 0; d < docs.length; d++) {
+            if (scores[d] > 0 && (categoryFilter == null || inCategory(d, categoryFilter))) {
+                hits.add(d);
+            }
+        }
+        // Ties go by name, then id, so products without a name cannot break the sort
+        hits.sort(Comparator.<Integer>comparingDouble(d -> -scores[d])
+                .thenComparing(d -> docs[d].getName(), Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(d -> docs[d].getId(), Comparator.nullsLast(Comparator.naturalOrder())));
+
+        List<Product> results = new ArrayList<>(Math.min(limit, hits.size()));
+        for (int i = 0; i < hits.size() && i < limit; i++) {
+            results.add(docs[hits.get(i)]);
+        }
+        return results;
+    }
+
+    private boolean inCategory(int d, String category) {
+        for (String c : docCategories[d]) {
+            if (c.equals(category)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int lowerBound(String token) {
+        int lo = 0;
+        int hi = terms.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (terms[mid].compareTo(token) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static float addField(Map<String, Map<Integer, Float>> inverted, int doc, String text, float weight) {
+        List<String> tokens = tokenize(text);
+        for (String token : tokens) {
+            inverted.computeIfAbsent(token, k -> new HashMap<>()).merge(doc, weight, Float::sum);
+        }
+        return tokens.size() * weight;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String normalized = normalize(text);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean word = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static String normalize(String text) {
+        // Fold accents ("café" -> "cafe") and case so queries match either form
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,46 @@
+package hipstershop;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old address-seeded Random + String.format tracking id with
+ * TrackingIdGenerator. Run with -prof gc to see allocations per id.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TrackingIdBenchmark {
+
+    private TrackingIdGenerator generator;
+    private String salt;
+
+    @Setup
+    public void setup() {
+        generator = new TrackingIdGenerator(1L);
+        salt = "1600 Amphitheatre ParkwayMountain ViewCA94043";
+    }
+
+    @Benchmark
+    public String seededRandomFormat() {
+        Random seeded = new Random(salt.hashCode());
+        char letter1 = (char) ('A' + seeded.nextInt(26));
+        char letter2 = (char) ('A' + seeded.nextInt(26));
+        int part1 = 100 + seeded.nextInt(900);
+        int part2 = 1000000 + seeded.nextInt(9000000);
+        return String.format("%c%c-%d-%d", letter1, letter2, part1, part2);
+    }
+
+    @Benchmark
+    public String generator() {
+        return generator.next();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String generatorContended() {
+        return generator.next();
+    }
+}
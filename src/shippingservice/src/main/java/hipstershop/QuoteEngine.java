@@ -0,0 +1,72 @@
+package hipstershop;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hipstershop.model.Address;
+import hipstershop.model.CartItem;
+import hipstershop.model.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Quotes shipping from the rate table at shipping.rates.location.
+ * The table is compiled once and re-read on a fixed delay; a changed file
+ * is swapped in atomically, and an invalid one keeps the previous rules.
+ */
+@Component
+public class QuoteEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(QuoteEngine.class);
+
+    private final Resource location;
+    private final ObjectMapper objectMapper;
+    private volatile RateTable table;
+    private byte[] loadedBytes;
+
+    public QuoteEngine(ResourceLoader resourceLoader, ObjectMapper objectMapper,
+                       @Value("${shipping.rates.location:classpath:shipping-rates.json}") String location)
+            throws IOException {
+        this.location = resourceLoader.getResource(location);
+        this.objectMapper = objectMapper;
+        // Fail fast on startup: quoting without rules is not possible
+        byte[] bytes = read();
+        this.table = RateTable.compile(objectMapper.readValue(bytes, RateTableSpec.class));
+        this.loadedBytes = bytes;
+        logger.info("Loaded shipping rate table from {}", location);
+    }
+
+    public Money quote(Address address, List<CartItem> items) {
+        return table.quote(address, items);
+    }
+
+    @Scheduled(fixedDelayString = "${shipping.rates.reload-interval-ms:60000}",
+               initialDelayString = "${shipping.rates.reload-interval-ms:60000}")
+    public void reload() {
+        try {
+            byte[] bytes = read();
+            if (Arrays.equals(bytes, loadedBytes)) {
+                return;
+            }
+            table = RateTable.compile(objectMapper.readValue(bytes, RateTableSpec.class));
+            loadedBytes = bytes;
+            logger.info("Reloaded shipping rate table from {}", location);
+        } catch (Exception e) {
+            logger.warn("Keeping previous shipping rate table, reload failed: {}", e.getMessage());
+        }
+    }
+
+    private byte[] read() throws IOException {
+        try (InputStream in = location.getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+}
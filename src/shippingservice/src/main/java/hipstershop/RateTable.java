@@ -0,0 +1,275 @@
+package hipstershop;
+
+import hipstershop.model.Address;
+import hipstershop.model.CartItem;
+import hipstershop.model.Money;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Shipping rate rules compiled into flat lookup arrays.
+ * Every price a quote can produce is precomputed (zone x weight class x
+ * item tier, in nanos), so quoting is a country lookup, a binary search over
+ * zip prefixes and two bound scans, and allocates only the returned Money.
+ */
+public final class RateTable {
+
+    private static final long NANOS_PER_UNIT = 1_000_000_000L;
+    private static final long[] POW10 = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L,
+            10_000_000L, 100_000_000L, 1_000_000_000L, 10_000_000_000L};
+
+    private final String currency;
+    private final Map<String, CountryZones> countries;
+    private final int fallbackZone;
+    private final int defaultItemWeight;
+    private final Map<String, Integer> productWeights;
+    private final long[] weightBounds;
+    private final long[] tierBounds;
+    private final long[] prices;
+
+    private RateTable(String currency, Map<String, CountryZones> countries, int fallbackZone,
+                      int defaultItemWeight, Map<String, Integer> productWeights,
+                      long[] weightBounds, long[] tierBounds, long[] prices) {
+        this.currency = currency;
+        this.countries = countries;
+        this.fallbackZone = fallbackZone;
+        this.defaultItemWeight = defaultItemWeight;
+        this.productWeights = productWeights;
+        this.weightBounds = weightBounds;
+        this.tierBounds = tierBounds;
+        this.prices = prices;
+    }
+
+    public static RateTable compile(RateTableSpec spec) {
+        if (spec.currency() == null || spec.zones() == null || spec.rates() == null) {
+            throw new IllegalArgumentException("Rate table needs currency, zones and rates");
+        }
+        long[] weightBounds = ascending("weightClassesGrams",
+                spec.weightClassesGrams() != null ? spec.weightClassesGrams() : List.of());
+        long[] tierBounds = ascending("itemTiers",
+                spec.itemTiers() != null ? spec.itemTiers() : List.of());
+        int weightClasses = weightBounds.length + 1;
+        int tiers = tierBounds.length + 1;
+
+        // Zones sharing a name share a rate, so price them once
+        Map<String, Integer> zoneIndex = new LinkedHashMap<>();
+        for (RateTableSpec.Zone zone : spec.zones()) {
+            zoneIndex.putIfAbsent(zone.name(), zoneIndex.size());
+        }
+        long[] prices = new long[zoneIndex.size() * weightClasses * tiers];
+        for (Map.Entry<String, Integer> e : zoneIndex.entrySet()) {
+            RateTableSpec.Rate rate = spec.rates().get(e.getKey());
+            if (rate == null) {
+                throw new IllegalArgumentException("No rate for zone " + e.getKey());
+            }
+            long base = toNanos(rate.base());
+            long[] byWeight = amounts(e.getKey() + ".weightClass", rate.weightClass(), weightClasses);
+            long[] byTier = amounts(e.getKey() + ".itemTier", rate.itemTier(), tiers);
+            for (int w = 0; w < weightClasses; w++) {
+                for (int t = 0; t < tiers; t++) {
+                    prices[(e.getValue() * weightClasses + w) * tiers + t] = base + byWeight[w] + byTier[t];
+                }
+            }
+        }
+
+        // Country names and codes resolve to one key, matched case-insensitively
+        Map<String, String> aliasToCountry = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (spec.countries() != null) {
+            for (Map.Entry<String, List<String>> e : spec.countries().entrySet()) {
+                aliasToCountry.put(e.getKey(), e.getKey());
+                for (String alias : e.getValue()) {
+                    aliasToCountry.put(alias.trim(), e.getKey());
+                }
+            }
+        }
+        Integer fallback = null;
+        Map<String, Integer> countryDefault = new HashMap<>();
+        Map<String, TreeMap<String, Integer>> countryPrefixes = new HashMap<>();
+        for (RateTableSpec.Zone zone : spec.zones()) {
+            int index = zoneIndex.get(zone.name());
+            if (zone.country() == null) {
+                fallback = index;
+                continue;
+            }
+            String country = aliasToCountry.getOrDefault(zone.country(), zone.country());
+            aliasToCountry.putIfAbsent(country, country);
+            if (zone.zipPrefixes() == null || zone.zipPrefixes().isEmpty()) {
+                countryDefault.put(country, index);
+            } else {
+                for (String prefix : zone.zipPrefixes()) {
+                    if (!prefix.trim().matches("\\d{1,10}")) {
+                        throw new IllegalArgumentException("Zip prefix must be digits: " + prefix);
+                    }
+                    countryPrefixes.computeIfAbsent(country, k -> new TreeMap<>())
+                            .put(prefix.trim(), index);
+                }
+            }
+        }
+        if (fallback == null) {
+            throw new IllegalArgumentException("Rate table needs a zone without a country as fallback");
+        }
+
+        Map<String, Integer> zipDigits = new HashMap<>();
+        if (spec.zipDigits() != null) {
+            spec.zipDigits().forEach((country, digits) ->
+                    zipDigits.put(aliasToCountry.getOrDefault(country, country), digits));
+        }
+
+        Map<String, CountryZones> countries = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        Map<String, CountryZones> byKey = new HashMap<>();
+        for (Map.Entry<String, String> alias : aliasToCountry.entrySet()) {
+            String country = alias.getValue();
+            CountryZones zones = byKey.computeIfAbsent(country, c -> CountryZones.of(
+                    countryPrefixes.getOrDefault(c, new TreeMap<>()), zipDigits.get(c), countryDefault.get(c)));
+            countries.put(alias.getKey(), zones);
+        }
+
+        Map<String, Integer> productWeights = spec.productWeightsGrams() != null
+                ? new HashMap<>(spec.productWeightsGrams()) : Map.of();
+        return new RateTable(spec.currency(), countries, fallback, spec.defaultItemWeightGrams(),
+                productWeights, weightBounds, tierBounds, prices);
+    }
+
+    public Money quote(Address address, List<CartItem> items) {
+        long itemCount = 0;
+        long weight = 0;
+        if (items != null) {
+            for (CartItem item : items) {
+                int quantity = Math.max(item.getQuantity(), 0);
+                Integer itemWeight = productWeights.get(item.getProductId());
+                itemCount += quantity;
+                weight += (long) quantity * (itemWeight != null ? itemWeight : defaultItemWeight);
+            }
+        }
+        int zone = zoneOf(address);
+        int w = classOf(weightBounds, weight);
+        int t = classOf(tierBounds, itemCount);
+        long nanos = prices[(zone * (weightBounds.length + 1) + w) * (tierBounds.length + 1) + t];
+        return new Money(currency, nanos / NANOS_PER_UNIT, (int) (nanos % NANOS_PER_UNIT));
+    }
+
+    private int zoneOf(Address address) {
+        if (address == null || address.getCountry() == null) {
+            return fallbackZone;
+        }
+        CountryZones zones = countries.get(address.getCountry().trim());
+        if (zones == null) {
+            return fallbackZone;
+        }
+        int zone = zones.match(address.getZipCode());
+        return zone >= 0 ? zone : fallbackZone;
+    }
+
+    private static int classOf(long[] bounds, long value) {
+        int c = 0;
+        while (c < bounds.length && value > bounds[c]) {
+            c++;
+        }
+        return c;
+    }
+
+    private static long[] ascending(String name, List<? extends Number> bounds) {
+        long[] out = new long[bounds.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = bounds.get(i).longValue();
+            if (i > 0 && out[i] <= out[i - 1]) {
+                throw new IllegalArgumentException(name + " must be strictly ascending");
+            }
+        }
+        return out;
+    }
+
+    private static long[] amounts(String name, List<String> amounts, int expected) {
+        if (amounts == null || amounts.size() != expected) {
+            throw new IllegalArgumentException(name + " needs " + expected + " amounts");
+        }
+        long[] out = new long[expected];
+        for (int i = 0; i < expected; i++) {
+            out[i] = toNanos(amounts.get(i));
+        }
+        return out;
+    }
+
+    private static long toNanos(String amount) {
+        return new BigDecimal(amount).movePointRight(9).longValueExact();
+    }
+
+    /**
+     * Zip prefix rules of one country, sorted for binary search.
+     */
+    private record CountryZones(String[] prefixes, int[] zones, int maxPrefixLength, int zipDigits, int defaultZone) {
+
+        static CountryZones of(TreeMap<String, Integer> prefixRules, Integer zipDigits, Integer defaultZone) {
+            List<String> prefixes = new ArrayList<>(prefixRules.keySet());
+            int[] zones = new int[prefixes.size()];
+            int maxLength = 0;
+            for (int i = 0; i < zones.length; i++) {
+                zones[i] = prefixRules.get(prefixes.get(i));
+                maxLength = Math.max(maxLength, prefixes.get(i).length());
+            }
+            return new CountryZones(prefixes.toArray(new String[0]), zones, maxLength,
+                    zipDigits != null ? zipDigits : 0, defaultZone != null ? defaultZone : -1);
+        }
+
+        /**
+         * Returns the zone of the longest matching zip prefix, the country
+         * default, or -1 if neither applies.
+         */
+        int match(int zip) {
+            if (prefixes.length > 0 && zip > 0) {
+                int width = Math.max(zipDigits, digits(zip));
+                for (int len = Math.min(maxPrefixLength, width); len > 0; len--) {
+                    int i = search(zip, width, len);
+                    if (i >= 0) {
+                        return zones[i];
+                    }
+                }
+            }
+            return defaultZone;
+        }
+
+        private int search(int zip, int width, int len) {
+            int lo = 0;
+            int hi = prefixes.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compare(prefixes[mid], zip, width, len);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        // Compares a prefix with the first len digits of the zero-padded zip
+        private static int compare(String prefix, int zip, int width, int len) {
+            int n = Math.min(prefix.length(), len);
+            for (int i = 0; i < n; i++) {
+                int digit = '0' + (int) (zip / POW10[width - 1 - i] % 10);
+                int diff = prefix.charAt(i) - digit;
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return prefix.length() - len;
+        }
+
+        private static int digits(int zip) {
+            int d = 1;
+            while (d < 10 && zip >= POW10[d]) {
+                d++;
+            }
+            return d;
+        }
+    }
+}
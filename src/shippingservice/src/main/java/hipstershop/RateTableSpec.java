@@ -0,0 +1,35 @@
+package hipstershop;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shipping rate rules as written in the rate table file (see
+ * shipping-rates.json). Amounts are decimal strings in the table currency.
+ * Weight classes and item tiers are inclusive upper bounds; anything above
+ * the last bound falls into one extra, open-ended class. Zip codes are
+ * numeric, so zipDigits gives the width to zero-pad them to before
+ * matching zip prefixes (e.g. 5 for the US, where 02139 arrives as 2139).
+ */
+public record RateTableSpec(
+        String currency,
+        Map<String, List<String>> countries,
+        Map<String, Integer> zipDigits,
+        List<Zone> zones,
+        int defaultItemWeightGrams,
+        Map<String, Integer> productWeightsGrams,
+        List<Long> weightClassesGrams,
+        List<Integer> itemTiers,
+        Map<String, Rate> rates) {
+
+    /**
+     * A zone matches a country and, optionally, zip code prefixes. The
+     * zone without a country is the fallback for every other address.
+     */
+    public record Zone(String name, String country, List<String> zipPrefixes) {}
+
+    /**
+     * Price = base + weightClass[class] + itemTier[tier].
+     */
+    public record Rate(String base, List<String> weightClass, List<String> itemTier) {}
+}
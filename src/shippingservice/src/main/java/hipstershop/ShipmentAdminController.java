@@ -0,0 +1,61 @@
+package hipstershop;
+
+import hipstershop.model.Shipment;
+import hipstershop.model.ShipmentPage;
+import hipstershop.model.StatusUpdateRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Operator endpoints for shipments: full records with the address, status
+ * transitions and shipments-by-status pages. They live under /internal,
+ * which the API gateway does not route, so they are only reachable from
+ * inside the cluster.
+ */
+@RestController
+@RequestMapping("/internal/shipping")
+public class ShipmentAdminController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShipmentAdminController.class);
+    private static final int MAX_PAGE_SIZE = 100;
+    private final ShipmentService shipmentService;
+
+    public ShipmentAdminController(ShipmentService shipmentService) {
+        this.shipmentService = shipmentService;
+    }
+
+    @GetMapping("/{trackingId}")
+    public ResponseEntity<Shipment> getShipment(@PathVariable String trackingId) {
+        Shipment shipment = shipmentService.getShipment(trackingId);
+        return shipment != null ? ResponseEntity.ok(shipment) : ResponseEntity.notFound().build();
+    }
+
+    @PutMapping("/{trackingId}/status")
+    public ResponseEntity<Shipment> updateStatus(@PathVariable String trackingId,
+                                                 @RequestBody StatusUpdateRequest request) {
+        try {
+            Shipment shipment = shipmentService.updateStatus(trackingId, ShipmentStatus.parse(request.getStatus()));
+            return shipment != null ? ResponseEntity.ok(shipment) : ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            logger.debug("Rejected status update for {}: {}", trackingId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
+
+    @GetMapping
+    public ResponseEntity<ShipmentPage> getShipmentsByStatus(@RequestParam String status,
+                                                             @RequestParam(defaultValue = "50") int limit,
+                                                             @RequestParam(required = false) String cursor) {
+        try {
+            int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+            return ResponseEntity.ok(shipmentService.getShipmentsByStatus(ShipmentStatus.parse(status), pageSize, cursor));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
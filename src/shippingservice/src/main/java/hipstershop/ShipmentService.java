@@ -0,0 +1,195 @@
+package hipstershop;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import hipstershop.model.Address;
+import hipstershop.model.CartItem;
+import hipstershop.model.Shipment;
+import hipstershop.model.ShipmentPage;
+import hipstershop.model.ShipmentSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read side of shipments: tracking lookups, status transitions and
+ * shipments-by-status pages. Lookups go through a small cache so customers
+ * polling the same tracking id do not hit MongoDB each time; a status change
+ * made here updates the cache, changes made by other replicas show up
+ * within the cache TTL.
+ */
+@Service
+public class ShipmentService {
+
+    private static final Bson SUMMARY_PROJECTION = Projections.include("trackingId", "status", "shippedAt", "updatedAt");
+
+    private final MongoCollection<Document> shipmentsCollection;
+    private final Cache<String, Shipment> trackingCache;
+
+    public ShipmentService(MongoClient mongoClient, MeterRegistry meterRegistry,
+                           @Value("${shipping.tracking-cache.max-size:10000}") long maxSize,
+                           @Value("${shipping.tracking-cache.ttl:30s}") Duration ttl) {
+        this.shipmentsCollection = mongoClient.getDatabase("shippingdb").getCollection("shipments");
+        this.trackingCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, trackingCache, "shipping.tracking");
+    }
+
+    /**
+     * Returns the shipment, or null if there is none with that tracking id.
+     */
+    public Shipment getShipment(String trackingId) {
+        Shipment cached = trackingCache.getIfPresent(trackingId);
+        if (cached != null) {
+            return cached;
+        }
+        Document doc = shipmentsCollection.find(Filters.eq("trackingId", trackingId)).first();
+        if (doc == null) {
+            return null;
+        }
+        Shipment shipment = toShipment(doc);
+        trackingCache.put(trackingId, shipment);
+        return shipment;
+    }
+
+    /**
+     * Moves a shipment to a new status. Returns the updated shipment, or null
+     * if it does not exist. Throws IllegalStateException if the shipment's
+     * current status does not allow the transition.
+     */
+    public Shipment updateStatus(String trackingId, ShipmentStatus status) {
+        // The transition check and the write are one atomic conditional update
+        Document updated = shipmentsCollection.findOneAndUpdate(
+                Filters.and(Filters.eq("trackingId", trackingId),
+                        Filters.in("status", ShipmentStatus.sourcesOf(status))),
+                Updates.combine(Updates.set("status", status.name()),
+                        Updates.set("updatedAt", Instant.now().toString())),
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        if (updated == null) {
+            trackingCache.invalidate(trackingId);
+            Shipment current = getShipment(trackingId);
+            if (current == null) {
+                return null;
+            }
+            throw new IllegalStateException("Cannot move shipment from " + current.getStatus() + " to " + status);
+        }
+        Shipment shipment = toShipment(updated);
+        trackingCache.put(trackingId, shipment);
+        return shipment;
+    }
+
+    /**
+     * Returns the tracking id of the shipment made for an order, or null if
+     * it has not been shipped.
+     */
+    public String findTrackingIdByOrder(String orderId) {
+        Document doc = shipmentsCollection.find(Filters.eq("orderId", orderId))
+                .projection(Projections.include("trackingId"))
+                .first();
+        return doc != null ? doc.getString("trackingId") : null;
+    }
+
+    /**
+     * Returns what a customer may see of a shipment: its status and dates,
+     * without the address or items. Null if there is no such shipment.
+     */
+    public ShipmentSummary getTracking(String trackingId) {
+        Shipment shipment = getShipment(trackingId);
+        if (shipment == null) {
+            return null;
+        }
+        ShipmentSummary summary = new ShipmentSummary();
+        summary.setTrackingId(shipment.getTrackingId());
+        summary.setStatus(shipment.getStatus());
+        summary.setShippedAt(shipment.getShippedAt());
+        summary.setUpdatedAt(shipment.getUpdatedAt());
+        return summary;
+    }
+
+    /**
+     * Returns one page of shipments in the given status, newest first. The
+     * cursor is the nextCursor of the previous page, or null for the first.
+     */
+    public ShipmentPage getShipmentsByStatus(ShipmentStatus status, int limit, String cursor) {
+        Bson filter = Filters.eq("status", status.name());
+        if (cursor != null && !cursor.isEmpty()) {
+            if (!ObjectId.isValid(cursor)) {
+                throw new IllegalArgumentException("Malformed cursor");
+            }
+            filter = Filters.and(filter, Filters.lt("_id", new ObjectId(cursor)));
+        }
+
+        List<ShipmentSummary> shipments = new ArrayList<>();
+        ObjectId lastId = null;
+        for (Document doc : shipmentsCollection.find(filter)
+                .projection(SUMMARY_PROJECTION)
+                .sort(Sorts.descending("_id"))
+                .limit(limit + 1)) {
+            if (shipments.size() == limit) {
+                return new ShipmentPage(shipments, lastId.toHexString());
+            }
+            shipments.add(toSummary(doc));
+            lastId = doc.getObjectId("_id");
+        }
+        return new ShipmentPage(shipments, null);
+    }
+
+    private static ShipmentSummary toSummary(Document doc) {
+        ShipmentSummary summary = new ShipmentSummary();
+        summary.setTrackingId(doc.getString("trackingId"));
+        summary.setStatus(doc.getString("status"));
+        summary.setShippedAt(doc.getString("shippedAt"));
+        summary.setUpdatedAt(doc.getString("updatedAt"));
+        return summary;
+    }
+
+    private static Shipment toShipment(Document doc) {
+        Shipment shipment = new Shipment();
+        shipment.setTrackingId(doc.getString("trackingId"));
+        shipment.setStatus(doc.getString("status"));
+        shipment.setShippedAt(doc.getString("shippedAt"));
+        shipment.setUpdatedAt(doc.getString("updatedAt"));
+
+        Document addrDoc = doc.get("address", Document.class);
+        if (addrDoc != null && !addrDoc.isEmpty()) {
+            Address address = new Address();
+            address.setStreetAddress(addrDoc.getString("streetAddress"));
+            address.setCity(addrDoc.getString("city"));
+            address.setState(addrDoc.getString("state"));
+            address.setCountry(addrDoc.getString("country"));
+            Integer zip = addrDoc.getInteger("zipCode");
+            address.setZipCode(zip != null ? zip : 0);
+            shipment.setAddress(address);
+        }
+
+        List<Document> itemDocs = doc.getList("items", Document.class);
+        if (itemDocs != null) {
+            for (Document itemDoc : itemDocs) {
+                Integer quantity = itemDoc.getInteger("quantity");
+                shipment.getItems().add(new CartItem(itemDoc.getString("productId"),
+                        quantity != null ? quantity : 0));
+            }
+        }
+        return shipment;
+    }
+}
@@ -0,0 +1,61 @@
+package hipstershop;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Shipment lifecycle. A shipment can only move to one of the states listed
+ * for its current state; DELIVERED and RETURNED are final.
+ */
+public enum ShipmentStatus {
+    SHIPPED,
+    IN_TRANSIT,
+    OUT_FOR_DELIVERY,
+    DELIVERED,
+    RETURNED;
+
+    private Set<ShipmentStatus> next;
+
+    static {
+        SHIPPED.next = EnumSet.of(IN_TRANSIT, RETURNED);
+        IN_TRANSIT.next = EnumSet.of(OUT_FOR_DELIVERY, RETURNED);
+        // A failed delivery attempt goes back into transit
+        OUT_FOR_DELIVERY.next = EnumSet.of(DELIVERED, IN_TRANSIT, RETURNED);
+        DELIVERED.next = EnumSet.noneOf(ShipmentStatus.class);
+        RETURNED.next = EnumSet.noneOf(ShipmentStatus.class);
+    }
+
+    public boolean canMoveTo(ShipmentStatus target) {
+        return next.contains(target);
+    }
+
+    /**
+     * Names of the states a shipment may be in to move to target.
+     */
+    public static List<String> sourcesOf(ShipmentStatus target) {
+        List<String> sources = new ArrayList<>();
+        for (ShipmentStatus s : values()) {
+            if (s.canMoveTo(target)) {
+                sources.add(s.name());
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Parses a status name, case-insensitively.
+     */
+    public static ShipmentStatus parse(String status) {
+        if (status == null) {
+            throw new IllegalArgumentException("Missing status");
+        }
+        try {
+            return valueOf(status.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown shipment status: " + status);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package hipstershop;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group-commits shipments to MongoDB.
+ * Concurrent submissions are collected into one unordered insertMany, up
+ * to batch-size documents or until flush-interval has passed since the first
+ * one arrived. Each caller's future completes once MongoDB has acknowledged
+ * its document, or fails with that document's write error. A caller that
+ * gives up cancels its future, and a cancelled shipment that is still
+ * queued is dropped instead of written.
+ */
+@Component
+public class ShipmentWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShipmentWriter.class);
+
+    private final MongoCollection<Document> shipmentsCollection;
+    private final BlockingQueue<Pending> queue;
+    private final int batchSize;
+    private final Duration flushInterval;
+
+    private final Timer flushTimer;
+    private final DistributionSummary batchSizes;
+
+    private volatile boolean running = true;
+    private Thread writer;
+
+    public ShipmentWriter(MongoClient mongoClient, MeterRegistry meterRegistry,
+                          @Value("${shipping.shipments.queue-capacity:10000}") int queueCapacity,
+                          @Value("${shipping.shipments.batch-size:200}") int batchSize,
+                          @Value("${shipping.shipments.flush-interval:2ms}") Duration flushInterval) {
+        this.shipmentsCollection = mongoClient.getDatabase("shippingdb").getCollection("shipments");
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+
+        Gauge.builder("shipping.shipments.queue.depth", queue, BlockingQueue::size)
+                .description("Shipments waiting to be written to MongoDB")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("shipping.shipments.flush")
+                .description("Time to write one batch of shipments to MongoDB")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("shipping.shipments.batch.size")
+                .description("Shipments per MongoDB write")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        writer = new Thread(this::run, "shipment-writer");
+        writer.start();
+    }
+
+    /**
+     * Queues a shipment and returns a future that completes when it is
+     * durably stored. Fails immediately if the queue is full.
+     */
+    public CompletableFuture<Void> submit(Document shipment) {
+        Pending pending = new Pending(shipment, new CompletableFuture<>());
+        if (!running || !queue.offer(pending)) {
+            pending.done.completeExceptionally(new IllegalStateException("Shipment queue is full"));
+        }
+        return pending.done;
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        List<Pending> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (int from = 0; from < remaining.size(); from += batchSize) {
+            write(remaining.subList(from, Math.min(from + batchSize, remaining.size())));
+        }
+    }
+
+    private void run() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<Pending> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                // Give concurrent requests a short window to join this batch
+                long deadline = System.nanoTime() + flushInterval.toNanos();
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || wait <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Shipment writer loop failed", e);
+            }
+        }
+    }
+
+    private void write(List<Pending> queued) {
+        List<Pending> batch = new ArrayList<>(queued.size());
+        for (Pending p : queued) {
+            if (!p.done.isCancelled()) {
+                batch.add(p);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Document> docs = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            docs.add(p.shipment);
+        }
+        long start = System.nanoTime();
+        try {
+            shipmentsCollection.insertMany(docs, new InsertManyOptions().ordered(false));
+            batch.forEach(p -> p.done.complete(null));
+        } catch (MongoBulkWriteException e) {
+            Map<Integer, BulkWriteError> failed = new HashMap<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                failed.put(error.getIndex(), error);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                BulkWriteError error = failed.get(i);
+                if (error == null) {
+                    batch.get(i).done.complete(null);
+                } else if (error.getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                    batch.get(i).done.completeExceptionally(new DuplicateShipmentException(error.getMessage()));
+                } else {
+                    batch.get(i).done.completeExceptionally(
+                            new IllegalStateException("Shipment write failed: " + error.getMessage()));
+                }
+            }
+            logger.warn("{} of {} shipments failed to save: {}", failed.size(), batch.size(), e.getMessage());
+        } catch (Exception e) {
+            batch.forEach(p -> p.done.completeExceptionally(e));
+            logger.warn("Failed to save {} shipments to MongoDB: {}", batch.size(), e.getMessage());
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            batchSizes.record(batch.size());
+        }
+    }
+
+    private record Pending(Document shipment, CompletableFuture<Void> done) {}
+
+    /**
+     * Thrown when a shipment collides with a unique index, such as a retried
+     * order that has already been shipped.
+     */
+    public static class DuplicateShipmentException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public DuplicateShipmentException(String message) {
+            super(message);
+        }
+    }
+}
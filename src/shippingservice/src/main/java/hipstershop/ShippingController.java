@@ -1,31 +1,55 @@
 package hipstershop;
 
+import com.mongodb.MongoCommandException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.Indexes;
 import hipstershop.model.*;
 import jakarta.annotation.PostConstruct;
 import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 @RequestMapping("/api/shipping")
 public class ShippingController {
 
     private static final Logger logger = LoggerFactory.getLogger(ShippingController.class);
+    private static final int DUPLICATE_KEY = 11000;
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 64;
     private final MongoCollection<Document> shipmentsCollection;
+    private final QuoteEngine quoteEngine;
+    private final ShipmentWriter shipmentWriter;
+    private final TrackingIdGenerator trackingIds;
+    private final ShipmentService shipmentService;
 
-    public ShippingController(MongoClient mongoClient) {
+    @Value("${shipping.shipments.ack-timeout:1500ms}")
+    private Duration ackTimeout;
+
+    public ShippingController(MongoClient mongoClient, QuoteEngine quoteEngine,
+                              ShipmentWriter shipmentWriter, TrackingIdGenerator trackingIds,
+                              ShipmentService shipmentService) {
         MongoDatabase database = mongoClient.getDatabase("shippingdb");
         this.shipmentsCollection = database.getCollection("shipments");
+        this.quoteEngine = quoteEngine;
+        this.shipmentWriter = shipmentWriter;
+        this.trackingIds = trackingIds;
+        this.shipmentService = shipmentService;
     }
 
     @PostConstruct
@@ -34,39 +58,115 @@ public class ShippingController {
         logger.info("ShippingService connected to MongoDB database 'shippingdb'");
     }
 
+    // Each index is ensured on its own, so one failure cannot skip the others
     private void ensureIndexes() {
         try {
-            shipmentsCollection.createIndex(Indexes.ascending("trackingId"));
-            shipmentsCollection.createIndex(Indexes.ascending("status"));
-            logger.info("Indexes on trackingId and status ensured");
+            ensureUniqueTrackingIdIndex();
         } catch (Exception e) {
-            logger.debug("Index creation skipped: {}", e.getMessage());
+            logger.error("Failed to ensure the trackingId index: {}", e.getMessage());
         }
+        try {
+            // Serves shipments-by-status pages; supersedes the single-field status index
+            shipmentsCollection.createIndex(Indexes.compoundIndex(
+                    Indexes.ascending("status"), Indexes.descending("_id")));
+            dropIndexIfExists("status_1");
+        } catch (Exception e) {
+            logger.warn("Failed to ensure the status index: {}", e.getMessage());
+        }
+        ensureUniqueOrderIdIndex();
+        logger.info("Shipment indexes ensured");
     }
 
-    @PostMapping("/quote")
-    public QuoteResponse getQuote(@RequestBody ShippingRequest request) {
-        int itemCount = 0;
-        if (request.getItems() != null) {
-            for (CartItem item : request.getItems()) {
-                itemCount += item.getQuantity();
+    /**
+     * One shipment per order: Idempotency-Key dedup of ship calls relies on
+     * this index, so without it the service does not start rather than risk
+     * shipping an order twice.
+     */
+    private void ensureUniqueOrderIdIndex() {
+        try {
+            shipmentsCollection.createIndex(Indexes.ascending("orderId"),
+                    new IndexOptions().unique(true).sparse(true));
+        } catch (Exception e) {
+            logger.error("Failed to ensure the unique orderId index: {}", e.getMessage());
+            throw new IllegalStateException("Unique orderId index on shipments is required", e);
+        }
+    }
+
+    private void ensureUniqueTrackingIdIndex() {
+        IndexOptions unique = new IndexOptions().unique(true);
+        try {
+            shipmentsCollection.createIndex(Indexes.ascending("trackingId"), unique);
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() == DUPLICATE_KEY) {
+                // Address-derived ids from before made duplicates; keep the old index until they are fixed
+                logger.error("Cannot make trackingId unique, existing shipments share tracking ids: {}",
+                        e.getErrorMessage());
+                return;
+            }
+            // The old non-unique index has the same name; replace it
+            shipmentsCollection.dropIndex("trackingId_1");
+            try {
+                shipmentsCollection.createIndex(Indexes.ascending("trackingId"), unique);
+            } catch (MongoCommandException duplicate) {
+                if (duplicate.getErrorCode() != DUPLICATE_KEY) {
+                    throw duplicate;
+                }
+                // Lookups still need an index, so restore the non-unique one
+                shipmentsCollection.createIndex(Indexes.ascending("trackingId"));
+                logger.error("Cannot make trackingId unique, existing shipments share tracking ids: {}",
+                        duplicate.getErrorMessage());
             }
         }
+    }
 
-        Money shippingCost = new Money("USD", 8, 990000000);
-        logger.info("Getting shipping quote for {} items, cost: $8.99", itemCount);
+    private void dropIndexIfExists(String name) {
+        try {
+            shipmentsCollection.dropIndex(name);
+            logger.info("Dropped superseded shipments index {}", name);
+        } catch (MongoCommandException e) {
+            // index not found: already dropped
+        }
+    }
+
+    /**
+     * Public tracking lookup. Anyone holding a tracking id can call it, so it
+     * returns status and dates only; the full shipment is under /internal.
+     */
+    @GetMapping("/{trackingId}")
+    public ResponseEntity<ShipmentSummary> getTracking(@PathVariable String trackingId) {
+        ShipmentSummary tracking = shipmentService.getTracking(trackingId);
+        return tracking != null ? ResponseEntity.ok(tracking) : ResponseEntity.notFound().build();
+    }
 
+    @PostMapping("/quote")
+    public QuoteResponse getQuote(@RequestBody ShippingRequest request) {
+        Money shippingCost = quoteEngine.quote(request.getAddress(), request.getItems());
+        if (logger.isDebugEnabled()) {
+            logger.debug("Shipping quote: {} {}.{}", shippingCost.getCurrencyCode(),
+                    shippingCost.getUnits(), String.format("%09d", shippingCost.getNanos()));
+        }
         return new QuoteResponse(shippingCost);
     }
 
+    /**
+     * Ships an order. With an Idempotency-Key (checkout sends the order id)
+     * a retry returns the tracking id of the shipment already made instead
+     * of shipping twice.
+     */
     @PostMapping("/order")
-    public ShipResponse shipOrder(@RequestBody ShippingRequest request) {
+    public ResponseEntity<?> shipOrder(@RequestBody ShippingRequest request,
+                                       @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        if (idempotencyKey != null) {
+            if (idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+                return ResponseEntity.badRequest().build();
+            }
+            String existing = shipmentService.findTrackingIdByOrder(idempotencyKey);
+            if (existing != null) {
+                return ResponseEntity.ok(new ShipResponse(existing));
+            }
+        }
         Address address = request.getAddress();
-        String baseStr = (address != null)
-                ? address.getStreetAddress() + address.getCity() + address.getState() + address.getZipCode()
-                : "";
-
-        String trackingId = createTrackingId(baseStr);
+        String trackingId = trackingIds.next();
 
         List<Document> itemDocs = new ArrayList<>();
         if (request.getItems() != null) {
@@ -88,23 +188,36 @@ public class ShippingController {
                 .append("items", itemDocs)
                 .append("status", "SHIPPED")
                 .append("shippedAt", Instant.now().toString());
+        if (idempotencyKey != null) {
+            shipment.append("orderId", idempotencyKey);
+        }
 
+        // Answer only once the batch containing this shipment is acknowledged
+        CompletableFuture<Void> saved = shipmentWriter.submit(shipment);
         try {
-            shipmentsCollection.insertOne(shipment);
-            logger.info("Shipment saved to MongoDB, tracking ID: {}", trackingId);
-        } catch (Exception e) {
-            logger.error("Failed to save shipment to MongoDB", e);
+            saved.get(ackTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            logger.debug("Shipment saved to MongoDB, tracking ID: {}", trackingId);
+        } catch (InterruptedException e) {
+            saved.cancel(false);
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        } catch (TimeoutException e) {
+            // Withdraw it so a shipment the caller was told failed is not written later
+            saved.cancel(false);
+            logger.warn("Shipment {} not acknowledged within {}", trackingId, ackTimeout);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ShipmentWriter.DuplicateShipmentException && idempotencyKey != null) {
+                // A concurrent retry of the same order got there first
+                String existing = shipmentService.findTrackingIdByOrder(idempotencyKey);
+                if (existing != null) {
+                    return ResponseEntity.ok(new ShipResponse(existing));
+                }
+            }
+            logger.error("Failed to save shipment {} to MongoDB: {}", trackingId, e.getCause().getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
         }
 
-        return new ShipResponse(trackingId);
-    }
-
-    private String createTrackingId(String salt) {
-        Random seeded = new Random(salt.hashCode());
-        char letter1 = (char) ('A' + seeded.nextInt(26));
-        char letter2 = (char) ('A' + seeded.nextInt(26));
-        int part1 = 100 + seeded.nextInt(900);
-        int part2 = 1000000 + seeded.nextInt(9000000);
-        return String.format("%c%c-%d-%d", letter1, letter2, part1, part2);
+        return ResponseEntity.ok(new ShipResponse(trackingId));
     }
 }
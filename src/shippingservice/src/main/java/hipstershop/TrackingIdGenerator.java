@@ -0,0 +1,80 @@
+package hipstershop;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Time-ordered tracking ids that are unique across replicas. Each id packs
+ * 41 bits of milliseconds since 2024-01-01, a 10-bit node id and a 12-bit
+ * per-millisecond sequence, rendered as 13 Crockford base32 characters in
+ * groups: "XXXXX-XXXX-XXXX". The alphabet has no I, L, O or U, so ids are
+ * easy to read out and type. The node id comes from
+ * {@link TrackingNodeLease}, which keeps it unique per replica.
+ *
+ * When more than 4096 ids are needed in one millisecond, or the clock
+ * steps back, ids continue from the last one issued instead of waiting,
+ * so ids from one node are strictly increasing.
+ */
+@Component
+public class TrackingIdGenerator {
+
+    static final long EPOCH_MILLIS = 1704067200000L; // 2024-01-01T00:00:00Z
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final int MAX_NODE = (1 << NODE_BITS) - 1;
+
+    private static final byte[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".getBytes(StandardCharsets.US_ASCII);
+    private static final int LENGTH = 15; // 13 characters and two dashes
+
+    private final LongSupplier nodes;
+    // (millis since epoch << SEQUENCE_BITS) | sequence of the last id issued
+    private final AtomicLong last = new AtomicLong();
+
+    @Autowired
+    public TrackingIdGenerator(TrackingNodeLease nodes) {
+        this.nodes = nodes::nodeId;
+    }
+
+    /**
+     * A generator for one fixed node id, for benchmarks and tests.
+     */
+    TrackingIdGenerator(long fixedNode) {
+        if (fixedNode < 0 || fixedNode > MAX_NODE) {
+            throw new IllegalArgumentException("node id must be between 0 and " + MAX_NODE);
+        }
+        this.nodes = () -> fixedNode;
+    }
+
+    public String next() {
+        long node = nodes.getAsLong();
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long state;
+        long prev;
+        do {
+            prev = last.get();
+            state = now > prev ? now : prev + 1;
+        } while (!last.compareAndSet(prev, state));
+
+        long millis = state >>> SEQUENCE_BITS;
+        long sequence = state & ((1L << SEQUENCE_BITS) - 1);
+        return encode((millis << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence);
+    }
+
+    static String encode(long id) {
+        byte[] out = new byte[LENGTH];
+        // 13 base32 digits cover 65 bits, written from the least significant end
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            if (i == 5 || i == 10) {
+                out[i] = '-';
+                continue;
+            }
+            out[i] = ALPHABET[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(out, StandardCharsets.US_ASCII);
+    }
+}
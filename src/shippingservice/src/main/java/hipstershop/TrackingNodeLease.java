@@ -0,0 +1,163 @@
+package hipstershop;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Hands out the node id that keeps tracking ids from different replicas
+ * apart. The primary path is a configured shipping.tracking.node-id, e.g. a
+ * StatefulSet ordinal or a fixed id for a single instance: it is used as is
+ * and id generation needs no coordination at all.
+ *
+ * Only when no node id is configured (a Deployment scaled to a varying
+ * number of replicas) is one of the 1024 node ids leased in
+ * shippingdb.tracking_nodes and renewed on a schedule. That fallback makes
+ * startup depend on MongoDB, and startup fails if no id is free. A replica
+ * stops using its node id one renewal interval before the lease can expire,
+ * so no two replicas ever issue ids with the same node. If renewal keeps
+ * failing, {@link #nodeId()} throws, and ship calls fail, rather than risk
+ * a duplicate; if the lease was lost, a new node id is leased.
+ */
+@Component
+public class TrackingNodeLease {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrackingNodeLease.class);
+
+    private final MongoCollection<Document> nodes;
+    private final String owner = UUID.randomUUID().toString();
+    private final Duration ttl;
+    private final long renewIntervalMs;
+    private final boolean leased;
+
+    private volatile long node = -1;
+    private volatile long validUntil = Long.MAX_VALUE;
+
+    public TrackingNodeLease(MongoClient mongoClient,
+                             @Value("${shipping.tracking.node-id:-1}") int nodeId,
+                             @Value("${shipping.tracking.lease-ttl:60s}") Duration ttl,
+                             @Value("${shipping.tracking.lease-renew-interval-ms:15000}") long renewIntervalMs) {
+        if (nodeId > TrackingIdGenerator.MAX_NODE) {
+            throw new IllegalArgumentException("shipping.tracking.node-id must be at most " + TrackingIdGenerator.MAX_NODE);
+        }
+        if (renewIntervalMs * 2 > ttl.toMillis()) {
+            throw new IllegalArgumentException("shipping.tracking.lease-ttl must be at least twice the renew interval");
+        }
+        this.nodes = mongoClient.getDatabase("shippingdb").getCollection("tracking_nodes");
+        this.ttl = ttl;
+        this.renewIntervalMs = renewIntervalMs;
+        this.leased = nodeId < 0;
+        if (leased) {
+            acquire();
+        } else {
+            this.node = nodeId;
+            logger.info("Tracking id node id: {} (configured)", node);
+        }
+    }
+
+    /**
+     * Returns the node id, or throws if the lease could not be renewed in time.
+     */
+    public long nodeId() {
+        if (System.currentTimeMillis() >= validUntil) {
+            throw new IllegalStateException("Tracking node lease " + node + " could not be renewed");
+        }
+        return node;
+    }
+
+    @Scheduled(fixedDelayString = "${shipping.tracking.lease-renew-interval-ms:15000}",
+               initialDelayString = "${shipping.tracking.lease-renew-interval-ms:15000}")
+    public void renew() {
+        if (!leased) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            long renewed = nodes.updateOne(ownLease(),
+                    Updates.set("expiresAt", new Date(now + ttl.toMillis()))).getMatchedCount();
+            if (renewed == 1) {
+                validUntil = now + ttl.toMillis() - renewIntervalMs;
+                return;
+            }
+            logger.warn("Tracking node lease {} was lost, leasing another", node);
+            validUntil = 0;
+            acquire();
+        } catch (Exception e) {
+            logger.warn("Failed to renew tracking node lease {}: {}", node, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void release() {
+        if (!leased || node < 0) {
+            return;
+        }
+        try {
+            nodes.deleteOne(ownLease());
+        } catch (Exception e) {
+            logger.debug("Failed to release tracking node lease {}: {}", node, e.getMessage());
+        }
+    }
+
+    /**
+     * Takes the first node id that is unassigned or whose lease has expired,
+     * starting from a random one so replicas starting together rarely race.
+     */
+    private void acquire() {
+        int start = ThreadLocalRandom.current().nextInt(TrackingIdGenerator.MAX_NODE + 1);
+        for (int i = 0; i <= TrackingIdGenerator.MAX_NODE; i++) {
+            int candidate = (start + i) % (TrackingIdGenerator.MAX_NODE + 1);
+            long now = System.currentTimeMillis();
+            Date expiresAt = new Date(now + ttl.toMillis());
+            if (tryLease(candidate, now, expiresAt)) {
+                node = candidate;
+                validUntil = now + ttl.toMillis() - renewIntervalMs;
+                logger.info("Tracking id node id: {} (leased)", node);
+                return;
+            }
+        }
+        throw new IllegalStateException("No free tracking node id; all "
+                + (TrackingIdGenerator.MAX_NODE + 1) + " are leased");
+    }
+
+    private boolean tryLease(int candidate, long now, Date expiresAt) {
+        try {
+            nodes.insertOne(new Document("_id", candidate)
+                    .append("owner", owner)
+                    .append("host", System.getenv("HOSTNAME"))
+                    .append("expiresAt", expiresAt));
+            return true;
+        } catch (MongoWriteException e) {
+            if (ErrorCategory.fromErrorCode(e.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+        }
+        // Taken before; claim it only if that lease has expired
+        return nodes.updateOne(
+                Filters.and(Filters.eq("_id", candidate), Filters.lt("expiresAt", new Date(now))),
+                Updates.combine(
+                        Updates.set("owner", owner),
+                        Updates.set("host", System.getenv("HOSTNAME")),
+                        Updates.set("expiresAt", expiresAt))).getModifiedCount() == 1;
+    }
+
+    private Bson ownLease() {
+        return Filters.and(Filters.eq("_id", (int) node), Filters.eq("owner", owner));
+    }
+}
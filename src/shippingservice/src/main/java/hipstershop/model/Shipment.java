@@ -0,0 +1,28 @@
+package hipstershop.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Shipment {
+    private String trackingId;
+    private String status;
+    private Address address;
+    private List<CartItem> items = new ArrayList<>();
+    private String shippedAt;
+    private String updatedAt;
+
+    public Shipment() {}
+
+    public String getTrackingId() { return trackingId; }
+    public void setTrackingId(String trackingId) { this.trackingId = trackingId; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public Address getAddress() { return address; }
+    public void setAddress(Address address) { this.address = address; }
+    public List<CartItem> getItems() { return items; }
+    public void setItems(List<CartItem> items) { this.items = items; }
+    public String getShippedAt() { return shippedAt; }
+    public void setShippedAt(String shippedAt) { this.shippedAt = shippedAt; }
+    public String getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(String updatedAt) { this.updatedAt = updatedAt; }
+}
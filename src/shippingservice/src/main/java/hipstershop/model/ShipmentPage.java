@@ -0,0 +1,21 @@
+package hipstershop.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ShipmentPage {
+    private List<ShipmentSummary> shipments = new ArrayList<>();
+    private String nextCursor;
+
+    public ShipmentPage() {}
+
+    public ShipmentPage(List<ShipmentSummary> shipments, String nextCursor) {
+        this.shipments = shipments;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<ShipmentSummary> getShipments() { return shipments; }
+    public void setShipments(List<ShipmentSummary> shipments) { this.shipments = shipments; }
+    public String getNextCursor() { return nextCursor; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+}
@@ -0,0 +1,19 @@
+package hipstershop.model;
+
+public class ShipmentSummary {
+    private String trackingId;
+    private String status;
+    private String shippedAt;
+    private String updatedAt;
+
+    public ShipmentSummary() {}
+
+    public String getTrackingId() { return trackingId; }
+    public void setTrackingId(String trackingId) { this.trackingId = trackingId; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public String getShippedAt() { return shippedAt; }
+    public void setShippedAt(String shippedAt) { this.shippedAt = shippedAt; }
+    public String getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(String updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -0,0 +1,10 @@
+package hipstershop.model;
+
+public class StatusUpdateRequest {
+    private String status;
+
+    public StatusUpdateRequest() {}
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+}